@@ -0,0 +1,95 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleDomParser;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleElement;
+
+/**
+ * Configuration and sentences shared by the benchmarks. The benchmarks run
+ * from the project directory, like the parser server, and load the models
+ * named in resources/english_stanford_parser.xml.
+ * 
+ * @author Sanjay_Meena
+ */
+final class BenchmarkConfig {
+
+	/**
+	 * Configuration file of the server and the client.
+	 */
+	static final String CONFIG_FILE = "resources" + File.separator
+			+ "english_stanford_parser.xml";
+
+	/**
+	 * Sentences of up to 10 tokens.
+	 */
+	static final List<String> SHORT = Arrays.asList(
+			"Dogs bark .",
+			"John and Mary are friends .",
+			"I saw the man with the telescope .",
+			"The quick brown fox jumps over the lazy dog .");
+
+	/**
+	 * Sentences of 15 to 25 tokens.
+	 */
+	static final List<String> MEDIUM = Arrays.asList(
+			"She is reading a long book in the garden behind the old house while her brother sleeps .",
+			"They will go to the market tomorrow morning if it does not rain during the night .",
+			"Diane felt manipulated by her beagle Santana , whose big , brown eyes pleaded for another cookie .",
+			"The students who had finished their exams early went to the beach to celebrate with their friends .");
+
+	/**
+	 * Sentences of 35 to 50 tokens.
+	 */
+	static final List<String> LONG = Arrays.asList(
+			"The committee , which had been meeting since early in the morning , finally agreed that the proposal should be sent back to the authors for another round of revisions before any decision is made .",
+			"The old man who lived near the river walked slowly to the market , where he bought some bread and a little cheese for his wife , who was waiting at home with the children .",
+			"Although the weather had been terrible for most of the week , the organizers decided that the festival would go ahead as planned , and thousands of visitors arrived from all over the country on Saturday .");
+
+	private BenchmarkConfig() {
+	}
+
+	/**
+	 * @param bucket
+	 *            "short", "medium" or "long"
+	 * @return sentences of that length bucket
+	 */
+	static List<String> sentences(String bucket) {
+		if (bucket.equals("short"))
+			return SHORT;
+		if (bucket.equals("medium"))
+			return MEDIUM;
+		if (bucket.equals("long"))
+			return LONG;
+		throw new IllegalArgumentException("Unknown length bucket " + bucket);
+	}
+
+	/**
+	 * Read the preferences of the configuration file.
+	 * 
+	 * @return preference values by name
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	static HashMap<String, String> preferences() throws IOException {
+		HashMap<String, String> preferences = new HashMap<String, String>();
+		BufferedReader br = new BufferedReader(new FileReader(CONFIG_FILE));
+		try {
+			SimpleElement configuration = new SimpleDomParser().parse(br);
+			for (SimpleElement element : configuration.getChildElements()) {
+				if (element.getTagName().equals("preference"))
+					preferences.put(element.getAttribute("name"),
+							element.getAttribute("value"));
+			}
+		} finally {
+			br.close();
+		}
+		return preferences;
+	}
+}
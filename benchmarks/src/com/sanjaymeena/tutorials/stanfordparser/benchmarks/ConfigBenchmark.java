@@ -0,0 +1,60 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleDomParser;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleElement;
+
+/**
+ * {@link SimpleDomParser#parse(java.io.Reader)} on the configuration file,
+ * which the server and every client read at startup. Needs no models.
+ * 
+ * @author Sanjay_Meena
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigBenchmark {
+
+	private String configuration;
+
+	/**
+	 * Read the configuration file into memory, so that only parsing is
+	 * measured.
+	 * 
+	 * @throws IOException
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		configuration = new String(Files.readAllBytes(Paths
+				.get(BenchmarkConfig.CONFIG_FILE)), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return parsed configuration
+	 * @throws IOException
+	 */
+	@Benchmark
+	public SimpleElement parse() throws IOException {
+		return new SimpleDomParser().parse(new StringReader(configuration));
+	}
+}
@@ -0,0 +1,82 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ModelSnapshot;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * {@link LexicalizedParser#apply(List)} on tagged sentences of each length
+ * bucket, with the grammar and the -maxLength option of the server. Parse
+ * time grows with the cube of the length, so the buckets are reported apart.
+ * 
+ * @author Sanjay_Meena
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({ "short", "medium", "long" })
+	String bucket;
+
+	private LexicalizedParser parser;
+	private List<List<TaggedWord>> sentences;
+	private int next;
+
+	/**
+	 * Load the tagger and the grammar and tag the sentences of the bucket.
+	 * 
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		HashMap<String, String> preferences = BenchmarkConfig.preferences();
+		MaxentTagger tagger = new MaxentTagger(preferences.get("postagger"));
+		parser = ModelSnapshot.loadParser(preferences.get("lexparser"),
+				preferences.get("lexparserSnapshot"));
+		parser.setOptionFlags("-maxLength", preferences.get("maxLength"),
+				"-outputFormat", "oneline");
+
+		sentences = new ArrayList<List<TaggedWord>>();
+		for (String sentence : BenchmarkConfig.sentences(bucket)) {
+			for (List<HasWord> words : MaxentTagger
+					.tokenizeText(new StringReader(sentence))) {
+				sentences.add(tagger.tagSentence(words));
+			}
+		}
+	}
+
+	/**
+	 * @return parse tree
+	 */
+	@Benchmark
+	public Tree apply() {
+		next = (next + 1) % sentences.size();
+		return parser.apply(sentences.get(next));
+	}
+}
@@ -0,0 +1,105 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sanjaymeena.tutorials.stanfordparser.server.EnglishStanfordParserServer;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.ParserUtilities;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.ParserUtilities.ParseResult;
+
+/**
+ * Full round trip of {@link ParserUtilities#parseEnglishSentence(String)}
+ * through an {@link EnglishStanfordParserServer} started in the benchmark JVM
+ * and reached over loopback. The sentences repeat, so with the parse cache of
+ * the server enabled ("cacheSize") this measures the protocol and the cache;
+ * set "cacheSize" to 0 to include tagging and parsing. Run with several
+ * threads (-t) to load the server with concurrent requests.
+ * 
+ * @author Sanjay_Meena
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	private static final long STARTUP_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	@Param({ "short", "medium", "long" })
+	String bucket;
+
+	private ParserUtilities utilities;
+	private List<String> sentences;
+
+	/**
+	 * Start the server and wait until it accepts connections.
+	 * 
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		int port = Integer.parseInt(BenchmarkConfig.preferences().get("port"));
+		Thread server = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				EnglishStanfordParserServer.parserServer();
+			}
+		}, "parser-server");
+		server.setDaemon(true);
+		server.start();
+
+		long start = System.currentTimeMillis();
+		while (!accepts(port)) {
+			if (System.currentTimeMillis() - start > STARTUP_TIMEOUT_MILLIS)
+				throw new IllegalStateException("Parser server did not start");
+			Thread.sleep(500);
+		}
+
+		utilities = ParserUtilities.getInstance();
+		sentences = BenchmarkConfig.sentences(bucket);
+	}
+
+	private static boolean accepts(int port) {
+		try {
+			new Socket("127.0.0.1", port).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Rotates through the sentences of the bucket per thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	/**
+	 * @param cursor
+	 *            sentence position of the thread
+	 * @return parse result
+	 */
+	@Benchmark
+	public ParseResult parseEnglishSentence(Cursor cursor) {
+		cursor.next = (cursor.next + 1) % sentences.size();
+		return utilities.parseEnglishSentence(sentences.get(cursor.next));
+	}
+}
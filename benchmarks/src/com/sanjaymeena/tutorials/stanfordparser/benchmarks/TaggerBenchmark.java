@@ -0,0 +1,69 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+
+/**
+ * {@link MaxentTagger#tagSentence(List)} on tokenized sentences of each length
+ * bucket, as the parser server tags every sentence before parsing it.
+ * 
+ * @author Sanjay_Meena
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TaggerBenchmark {
+
+	@Param({ "short", "medium", "long" })
+	String bucket;
+
+	private MaxentTagger tagger;
+	private List<List<HasWord>> sentences;
+	private int next;
+
+	/**
+	 * Load the tagger and tokenize the sentences of the bucket.
+	 * 
+	 * @throws Exception
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		tagger = new MaxentTagger(BenchmarkConfig.preferences().get(
+				"postagger"));
+		sentences = new ArrayList<List<HasWord>>();
+		for (String sentence : BenchmarkConfig.sentences(bucket)) {
+			sentences.addAll(MaxentTagger.tokenizeText(new StringReader(
+					sentence)));
+		}
+	}
+
+	/**
+	 * @return tagged sentence
+	 */
+	@Benchmark
+	public List<TaggedWord> tagSentence() {
+		next = (next + 1) % sentences.size();
+		return tagger.tagSentence(sentences.get(next));
+	}
+}
@@ -0,0 +1,89 @@
+package com.sanjaymeena.tutorials.stanfordparser.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sanjaymeena.tutorials.stanfordparser.protocol.TreeCodec;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.ParserUtilities;
+
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * Reading and writing the trees exchanged with the parser server: Penn
+ * bracket strings with {@link ParserUtilities#readTreeFromString(String)} and
+ * {@link Tree#toString()}, and the binary {@link TreeCodec} encoding. Needs no
+ * models.
+ * 
+ * @author Sanjay_Meena
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeIOBenchmark {
+
+	private static final String PENN_TREE = "(ROOT (S (NP (NP (DT The) (NN committee)) (, ,) (SBAR (WHNP (WDT which)) (S (VP (VBD had) (VP (VBN been) (VP (VBG meeting) (PP (IN since) (NP (RB early))) (PP (IN in) (NP (DT the) (NN morning)))))))) (, ,)) (ADVP (RB finally)) (VP (VBD agreed) (SBAR (IN that) (S (NP (DT the) (NN proposal)) (VP (MD should) (VP (VB be) (VP (VBN sent) (ADVP (RB back)) (PP (TO to) (NP (DT the) (NNS authors))))))))) (. .)))";
+
+	private ParserUtilities utilities;
+	private TreeFactory treeFactory;
+	private Tree tree;
+	private byte[] encoded;
+
+	/**
+	 * Read the tree once in each form.
+	 */
+	@Setup
+	public void setUp() {
+		utilities = ParserUtilities.getInstance();
+		treeFactory = new LabeledScoredTreeFactory();
+		tree = utilities.readTreeFromString(PENN_TREE);
+		encoded = TreeCodec.encode(tree);
+	}
+
+	/**
+	 * @return tree read from its Penn string
+	 */
+	@Benchmark
+	public Tree readTreeFromString() {
+		return utilities.readTreeFromString(PENN_TREE);
+	}
+
+	/**
+	 * @return Penn string of the tree
+	 */
+	@Benchmark
+	public String treeToString() {
+		return tree.toString();
+	}
+
+	/**
+	 * @return binary encoding of the tree
+	 */
+	@Benchmark
+	public byte[] encodeBinary() {
+		return TreeCodec.encode(tree);
+	}
+
+	/**
+	 * @return tree decoded from its binary encoding
+	 * @throws Exception
+	 */
+	@Benchmark
+	public Tree decodeBinary() throws Exception {
+		return TreeCodec.decode(encoded, treeFactory);
+	}
+}
@@ -0,0 +1,396 @@
+package com.sanjaymeena.tutorials.stanfordparser.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngine;
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngines;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.DiskParseCache;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleDomParser;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleElement;
+
+import edu.stanford.nlp.ling.HasOffset;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.parser.common.ParserUtils;
+import edu.stanford.nlp.process.DocumentPreprocessor;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Command line batch mode which parses a whole file in process, without the
+ * parser server.
+ * <p>
+ * The input is streamed and split into sentences at the delimiter of the
+ * "sentences" preference, e.g. "\n" for a file with one sentence per line, or
+ * by the tokenizer when the preference is empty. The sentences are parsed on a
+ * work-stealing pool with one thread per core and their trees are written to
+ * the output file one per line, in the order of the input. A
+ * {@link ReorderBuffer} of "reorderBuffer" sentences bounds the sentences read
+ * ahead of the output, so that memory stays constant however large the input
+ * is.
+ * 
+ * @author Sanjay_Meena
+ */
+public class BatchParser {
+
+	private static HashMap<String, String> preferences = new HashMap<String, String>();
+	private static String CONFIG_FILE = "resources" + File.separator
+			+ "english_stanford_parser.xml";
+
+	private final ParserEngine engine;
+	private final MaxentTagger tagger;
+	private final ForkJoinPool pool;
+	private final ReorderBuffer<ParsedSentence> buffer;
+	private final String sentenceDelimiter;
+	private final DiskParseCache diskCache;
+
+	/**
+	 * @param engine
+	 *            loaded parser engine
+	 * @param tagger
+	 *            part of speech tagger, only needed when the engine requires
+	 *            tags
+	 * @param workers
+	 *            parallelism of the parse pool
+	 * @param reorderBuffer
+	 *            largest number of sentences in flight
+	 * @param sentenceDelimiter
+	 *            delimiter between the sentences of the input, null to let
+	 *            the tokenizer split the sentences
+	 * @param diskCache
+	 *            cache of trees on disk, null for none
+	 */
+	public BatchParser(ParserEngine engine, MaxentTagger tagger, int workers,
+			int reorderBuffer, String sentenceDelimiter,
+			DiskParseCache diskCache) {
+		this.engine = engine;
+		this.tagger = tagger;
+		this.pool = new ForkJoinPool(workers);
+		this.buffer = new ReorderBuffer<ParsedSentence>(reorderBuffer);
+		this.sentenceDelimiter = sentenceDelimiter;
+		this.diskCache = diskCache;
+	}
+
+	/**
+	 * Parse every sentence of the input and write one tree per line to the
+	 * output.
+	 * 
+	 * @param input
+	 *            UTF-8 text file
+	 * @param output
+	 *            UTF-8 file of the trees
+	 * @return number of sentences parsed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public long parse(String input, String output) throws IOException,
+			InterruptedException {
+		Reader reader = new InputStreamReader(new FileInputStream(input),
+				StandardCharsets.UTF_8);
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output), StandardCharsets.UTF_8));
+		try {
+			return parse(reader, 0, new TreeWriter() {
+				@Override
+				public void write(String tree, long inputEnd)
+						throws IOException {
+					writer.write(tree);
+					writer.write('\n');
+				}
+			});
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Parse every sentence of the input and hand the trees to the writer in
+	 * the order of the input. The parser can only be used once.
+	 * 
+	 * @param input
+	 *            input text, closed when it has been read
+	 * @param inputOffset
+	 *            character offset of the input in the whole text, added to
+	 *            the offsets passed to the writer
+	 * @param writer
+	 *            destination of the trees, called on the calling thread
+	 * @return number of sentences parsed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	long parse(final Reader input, final long inputOffset, TreeWriter writer)
+			throws IOException, InterruptedException {
+		final long[] count = new long[1];
+		final Throwable[] readFailure = new Throwable[1];
+
+		// the reader hands the sentences to the pool while this thread writes
+		// the trees out
+		Thread readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					count[0] = submitSentences(new BufferedReader(input),
+							inputOffset);
+				} catch (Throwable e) {
+					readFailure[0] = e;
+				} finally {
+					try {
+						input.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "batch-reader");
+		readerThread.start();
+
+		boolean written = false;
+		try {
+			ParsedSentence sentence;
+			while ((sentence = buffer.take()) != null) {
+				writer.write(sentence.tree, sentence.inputEnd);
+			}
+			written = true;
+		} finally {
+			// stop the reader, which would wait for the writer forever
+			if (!written)
+				readerThread.interrupt();
+			pool.shutdown();
+		}
+		readerThread.join();
+
+		if (readFailure[0] != null)
+			throw new IOException("Error reading the input", readFailure[0]);
+		return count[0];
+	}
+
+	/**
+	 * Split the input into sentences and submit them to the pool, waiting for
+	 * the writer whenever the reorder buffer is full.
+	 * 
+	 * @return number of sentences submitted
+	 */
+	private long submitSentences(BufferedReader reader, long inputOffset)
+			throws InterruptedException {
+		DocumentPreprocessor sentences = new DocumentPreprocessor(reader);
+		sentences.setTokenizerFactory(engine.treebankLanguagePack()
+				.getTokenizerFactory());
+		if (sentenceDelimiter != null)
+			sentences.setSentenceDelimiter(sentenceDelimiter);
+
+		long index = 0;
+		// the tokenizer counts offsets in an int, which wraps in inputs of
+		// more than 2G characters, so only the distance between sentences is
+		// taken from it
+		long position = inputOffset;
+		int lastEnd = 0;
+		try {
+			for (List<HasWord> sentence : sentences) {
+				if (sentence.isEmpty())
+					continue;
+				HasWord last = sentence.get(sentence.size() - 1);
+				if (last instanceof HasOffset) {
+					int end = ((HasOffset) last).endPosition();
+					position += (end - lastEnd) & 0xFFFFFFFFL;
+					lastEnd = end;
+				}
+				buffer.reserve(index);
+				pool.execute(parseTask(index, sentence, position));
+				index++;
+			}
+		} finally {
+			// the writer stops after the last sentence submitted, also when
+			// reading failed
+			buffer.close(index);
+		}
+		return index;
+	}
+
+	private Runnable parseTask(final long index, final List<HasWord> sentence,
+			final long inputEnd) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				Tree tree = null;
+				String text = null;
+				try {
+					String key = null;
+					if (diskCache != null) {
+						key = Sentence.listToString(sentence);
+						tree = diskCache.get(key);
+					}
+					if (tree == null) {
+						List<? extends HasWord> words = sentence;
+						if (engine.requiresTags())
+							words = tagger.tagSentence(sentence);
+						tree = engine.parse(words);
+						if (diskCache != null)
+							diskCache.put(key, tree);
+					}
+					text = tree.toString();
+				} catch (Throwable e) {
+					// keep the output aligned with the input, also when the
+					// sentence exhausted the stack or the memory
+					e.printStackTrace();
+				}
+				if (text == null)
+					text = ParserUtils.xTree(sentence).toString();
+				buffer.put(index, new ParsedSentence(text, inputEnd));
+			}
+		};
+	}
+
+	/**
+	 * Destination of the trees of {@link BatchParser#parse(Reader, long,
+	 * TreeWriter)}.
+	 */
+	interface TreeWriter {
+
+		/**
+		 * @param tree
+		 *            tree of the next sentence of the input, in Penn bracket
+		 *            notation
+		 * @param inputEnd
+		 *            character offset behind the last word of the sentence
+		 * @throws IOException
+		 */
+		void write(String tree, long inputEnd) throws IOException;
+	}
+
+	private static class ParsedSentence {
+
+		final String tree;
+		final long inputEnd;
+
+		ParsedSentence(String tree, long inputEnd) {
+			this.tree = tree;
+			this.inputEnd = inputEnd;
+		}
+	}
+
+	/**
+	 * Parse a file with the parser configured in
+	 * resources/english_stanford_parser.xml.
+	 * 
+	 * @param args
+	 *            input file and output file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("usage: BatchParser <input> <output>");
+			System.exit(1);
+		}
+		BatchParser batchParser = load();
+
+		try {
+			long start = System.nanoTime();
+			long sentences = batchParser.parse(args[0], args[1]);
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- start);
+			System.err.println("Parsed " + sentences + " sentences in "
+					+ millis + " ms");
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Load the parser configured in resources/english_stanford_parser.xml,
+	 * exiting if it cannot be loaded.
+	 * 
+	 * @return parser for one input
+	 */
+	static BatchParser load() {
+		readconfig(CONFIG_FILE);
+
+		int workers = intPreference("batchWorkers", Runtime.getRuntime()
+				.availableProcessors());
+		int reorderBuffer = intPreference("reorderBuffer", 1024);
+		String sentenceDelimiter = preferences.get("sentences");
+		if (sentenceDelimiter == null || sentenceDelimiter.isEmpty()) {
+			sentenceDelimiter = null;
+		} else {
+			// the configuration file holds the delimiter escaped
+			sentenceDelimiter = sentenceDelimiter.replace("\\n", "\n")
+					.replace("\\t", "\t");
+		}
+
+		System.err.println("batchWorkers = " + workers);
+		System.err.println("reorderBuffer = " + reorderBuffer);
+
+		BatchParser batchParser = null;
+		try {
+			ParserEngine engine = ParserEngines.load(preferences);
+			MaxentTagger tagger = null;
+			if (engine.requiresTags())
+				tagger = new MaxentTagger(preferences.get("postagger"));
+			batchParser = new BatchParser(engine, tagger, workers,
+					reorderBuffer, sentenceDelimiter, DiskParseCache.open(
+							preferences, engine.requiresTags()));
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			System.err.println("Error loading parser, exiting...");
+			System.exit(1);
+		}
+		return batchParser;
+	}
+
+	/**
+	 * @param config
+	 */
+	private static void readconfig(String config) {
+		SimpleElement configuration = null;
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(config));
+			SimpleDomParser sdp = new SimpleDomParser();
+			configuration = sdp.parse(br);
+
+			if (configuration == null)
+				throw new Exception("Error reading configuration file");
+			preferencesFromXML(configuration);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void preferencesFromXML(SimpleElement configuration) {
+
+		for (int i = 0; i < configuration.getChildElements().size(); i++) {
+			SimpleElement element = configuration.getChildElements().get(i);
+			if (element.getTagName().equals("preference")) {
+				String name = element.getAttribute("name");
+				String value = element.getAttribute("value");
+				preferences.put(name, value);
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 *            preference name
+	 * @param defaultValue
+	 *            value used when the preference is not configured
+	 * @return integer value of the preference
+	 */
+	static int intPreference(String name, int defaultValue) {
+		String value = preferences.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+}
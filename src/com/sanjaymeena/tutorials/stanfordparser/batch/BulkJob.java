@@ -0,0 +1,273 @@
+package com.sanjaymeena.tutorials.stanfordparser.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable {@link BatchParser} run over a large corpus.
+ * <p>
+ * The trees are appended to segment files output.00000, output.00001, ... of
+ * at most "segmentSize" megabytes. Every "checkpointInterval" milliseconds the
+ * segment is synced to disk and the number of sentences written, the
+ * character offset of the input behind them and the length of the segment
+ * are saved in output.checkpoint. A job started again with the same input and
+ * output resumes from its checkpoint: trees written after it are cut off and
+ * the input is read from the offset of the checkpoint, so every sentence ends
+ * up in the output exactly once.
+ * 
+ * @author Sanjay_Meena
+ */
+public class BulkJob {
+
+	private final String output;
+	private final long segmentBytes;
+	private final long checkpointNanos;
+	private final File checkpointFile;
+
+	private long sentences;
+	private long inputOffset;
+	private int segment;
+	private long segmentLength;
+	private FileOutputStream segmentFile;
+	private OutputStream segmentStream;
+
+	private long lastCheckpoint;
+	private long checkpointTime;
+
+	/**
+	 * @param output
+	 *            path of the output, extended by the segment number
+	 * @param segmentBytes
+	 *            size after which a new segment is started
+	 * @param checkpointMillis
+	 *            time between checkpoints
+	 */
+	public BulkJob(String output, long segmentBytes, long checkpointMillis) {
+		this.output = output;
+		this.segmentBytes = segmentBytes;
+		this.checkpointNanos = TimeUnit.MILLISECONDS.toNanos(checkpointMillis);
+		this.checkpointFile = new File(output + ".checkpoint");
+	}
+
+	/**
+	 * Parse the input, or the rest of it if the job was interrupted.
+	 * 
+	 * @param parser
+	 *            parser for the input
+	 * @param input
+	 *            UTF-8 text file
+	 * @return number of sentences parsed by this run
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public long run(BatchParser parser, String input) throws IOException,
+			InterruptedException {
+		if (restore()) {
+			System.err.println(output + " is complete");
+			return 0;
+		}
+		if (sentences > 0)
+			System.err.println("Resuming after sentence " + sentences
+					+ " at offset " + inputOffset);
+
+		openSegment();
+		Reader reader = new InputStreamReader(new FileInputStream(input),
+				StandardCharsets.UTF_8);
+		try {
+			skip(reader, inputOffset);
+		} catch (IOException e) {
+			reader.close();
+			throw e;
+		}
+
+		lastCheckpoint = System.nanoTime();
+		try {
+			long parsed = parser.parse(reader, inputOffset,
+					new BatchParser.TreeWriter() {
+						@Override
+						public void write(String tree, long inputEnd)
+								throws IOException {
+							append(tree, inputEnd);
+						}
+					});
+			checkpoint(true);
+			return parsed;
+		} finally {
+			segmentStream.close();
+		}
+	}
+
+	/**
+	 * @return time spent writing checkpoints, in nanoseconds
+	 */
+	public long getCheckpointTime() {
+		return checkpointTime;
+	}
+
+	/**
+	 * Read the checkpoint, if there is one, and drop the output written after
+	 * it.
+	 * 
+	 * @return true if the job is already complete
+	 */
+	private boolean restore() throws IOException {
+		if (checkpointFile.exists()) {
+			Properties checkpoint = new Properties();
+			InputStream in = new FileInputStream(checkpointFile);
+			try {
+				checkpoint.load(in);
+			} finally {
+				in.close();
+			}
+			sentences = Long.parseLong(checkpoint.getProperty("sentences"));
+			inputOffset = Long.parseLong(checkpoint.getProperty("inputOffset"));
+			segment = Integer.parseInt(checkpoint.getProperty("segment"));
+			segmentLength = Long.parseLong(checkpoint
+					.getProperty("segmentLength"));
+			if (Boolean.parseBoolean(checkpoint.getProperty("complete")))
+				return true;
+		}
+
+		// without a checkpoint the segments of an earlier run are dropped
+		RandomAccessFile file = new RandomAccessFile(segmentPath(segment), "rw");
+		try {
+			if (file.length() < segmentLength)
+				throw new IOException(segmentPath(segment)
+						+ " is shorter than its checkpoint");
+			file.setLength(segmentLength);
+		} finally {
+			file.close();
+		}
+		for (int later = segment + 1; segmentPath(later).exists(); later++) {
+			if (!segmentPath(later).delete())
+				throw new IOException("Cannot delete " + segmentPath(later));
+		}
+		return false;
+	}
+
+	private static void skip(Reader reader, long chars) throws IOException {
+		while (chars > 0) {
+			long skipped = reader.skip(chars);
+			if (skipped <= 0)
+				throw new EOFException(
+						"Input is shorter than the offset of the checkpoint");
+			chars -= skipped;
+		}
+	}
+
+	private File segmentPath(int number) {
+		return new File(output + String.format(".%05d", number));
+	}
+
+	private void openSegment() throws IOException {
+		segmentFile = new FileOutputStream(segmentPath(segment), true);
+		segmentStream = new BufferedOutputStream(segmentFile, 64 * 1024);
+	}
+
+	/**
+	 * Append a tree to the current segment, starting a new one when it is
+	 * full, and write a checkpoint when it is due.
+	 */
+	private void append(String tree, long inputEnd) throws IOException {
+		byte[] bytes = (tree + "\n").getBytes(StandardCharsets.UTF_8);
+		if (segmentLength > 0 && segmentLength + bytes.length > segmentBytes) {
+			// the checkpoint refers to the new segment only, so the old one
+			// has to be on disk before it
+			segmentStream.flush();
+			segmentFile.getFD().sync();
+			segmentStream.close();
+			segment++;
+			segmentLength = 0;
+			openSegment();
+		}
+		segmentStream.write(bytes);
+		segmentLength += bytes.length;
+		sentences++;
+		inputOffset = inputEnd;
+
+		if (System.nanoTime() - lastCheckpoint >= checkpointNanos)
+			checkpoint(false);
+	}
+
+	/**
+	 * Sync the segment and then replace the checkpoint, so that the checkpoint
+	 * never refers to output which is not on disk.
+	 */
+	private void checkpoint(boolean complete) throws IOException {
+		long start = System.nanoTime();
+		segmentStream.flush();
+		segmentFile.getFD().sync();
+
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("sentences", Long.toString(sentences));
+		checkpoint.setProperty("inputOffset", Long.toString(inputOffset));
+		checkpoint.setProperty("segment", Integer.toString(segment));
+		checkpoint.setProperty("segmentLength", Long.toString(segmentLength));
+		checkpoint.setProperty("complete", Boolean.toString(complete));
+
+		File temp = new File(output + ".checkpoint.tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			checkpoint.store(out, null);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), checkpointFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		lastCheckpoint = System.nanoTime();
+		checkpointTime += lastCheckpoint - start;
+	}
+
+	/**
+	 * Parse a corpus with the parser configured in
+	 * resources/english_stanford_parser.xml, resuming an earlier run into the
+	 * same output.
+	 * 
+	 * @param args
+	 *            input file and output path
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("usage: BulkJob <input> <output>");
+			System.exit(1);
+		}
+		BatchParser batchParser = BatchParser.load();
+		int segmentSize = BatchParser.intPreference("segmentSize", 64);
+		int checkpointInterval = BatchParser.intPreference(
+				"checkpointInterval", 10000);
+		System.err.println("segmentSize = " + segmentSize);
+		System.err.println("checkpointInterval = " + checkpointInterval);
+
+		BulkJob job = new BulkJob(args[1], segmentSize * 1024L * 1024L,
+				checkpointInterval);
+		try {
+			long start = System.nanoTime();
+			long sentences = job.run(batchParser, args[0]);
+			long nanos = System.nanoTime() - start;
+			System.err.println("Parsed " + sentences + " sentences in "
+					+ TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, "
+					+ TimeUnit.NANOSECONDS.toMillis(job.getCheckpointTime())
+					+ " ms of it in checkpoints");
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.sanjaymeena.tutorials.stanfordparser.batch;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded buffer which hands out the results of numbered work items in the
+ * order of their numbers, no matter in which order they are completed. At most
+ * capacity items may be in flight past the next one to be taken: the producer
+ * {@link #reserve(long) reserves} the slot of an item before it hands the item
+ * to a worker, and waits while the consumer is that far behind.
+ * 
+ * @author Sanjay_Meena
+ * @param <T>
+ *            result type
+ */
+class ReorderBuffer<T> {
+
+	private final Object[] slots;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition nextReady = lock.newCondition();
+
+	/**
+	 * Number of the next result to be taken.
+	 */
+	private long next;
+	/**
+	 * Number of items, known once the producer is done.
+	 */
+	private long count = Long.MAX_VALUE;
+
+	/**
+	 * @param capacity
+	 *            largest number of items in flight
+	 */
+	ReorderBuffer(int capacity) {
+		this.slots = new Object[capacity];
+	}
+
+	/**
+	 * Wait until the slot of an item is free.
+	 * 
+	 * @param index
+	 *            number of the item, starting at 0
+	 * @throws InterruptedException
+	 */
+	void reserve(long index) throws InterruptedException {
+		lock.lock();
+		try {
+			while (index >= next + slots.length)
+				notFull.await();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Store the result of a reserved item.
+	 * 
+	 * @param index
+	 *            number of the item
+	 * @param result
+	 *            result of the item, not null
+	 */
+	void put(long index, T result) {
+		lock.lock();
+		try {
+			slots[slot(index)] = result;
+			if (index == next)
+				nextReady.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Mark the end of the items.
+	 * 
+	 * @param count
+	 *            number of items put by the producer
+	 */
+	void close(long count) {
+		lock.lock();
+		try {
+			this.count = count;
+			nextReady.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the next result in order.
+	 * 
+	 * @return the result, or null after the last item
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	T take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (next < count && slots[slot(next)] == null)
+				nextReady.await();
+			if (next >= count)
+				return null;
+			int slot = slot(next);
+			T result = (T) slots[slot];
+			slots[slot] = null;
+			next++;
+			notFull.signal();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int slot(long index) {
+		return (int) (index % slots.length);
+	}
+}
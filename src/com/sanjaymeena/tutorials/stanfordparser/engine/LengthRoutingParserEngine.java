@@ -0,0 +1,67 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+
+/**
+ * {@link ParserEngine} which sends short sentences to one engine and long
+ * sentences to another, typically the PCFG parser for short sentences and the
+ * shift-reduce parser for the long ones the PCFG parser is slow on.
+ * 
+ * @author Sanjay_Meena
+ */
+public class LengthRoutingParserEngine implements ParserEngine {
+
+	private final ParserEngine shortEngine;
+	private final ParserEngine longEngine;
+	private final int maxShortLength;
+
+	/**
+	 * @param shortEngine
+	 *            engine for sentences of at most maxShortLength words
+	 * @param longEngine
+	 *            engine for longer sentences
+	 * @param maxShortLength
+	 *            longest sentence, in words, sent to the short engine
+	 */
+	public LengthRoutingParserEngine(ParserEngine shortEngine,
+			ParserEngine longEngine, int maxShortLength) {
+		this.shortEngine = shortEngine;
+		this.longEngine = longEngine;
+		this.maxShortLength = maxShortLength;
+	}
+
+	@Override
+	public Tree parse(List<? extends HasWord> sentence) {
+		return engineFor(sentence.size()).parse(sentence);
+	}
+
+	/**
+	 * @param length
+	 *            sentence length in words
+	 * @return engine which parses sentences of that length
+	 */
+	public ParserEngine engineFor(int length) {
+		return length > maxShortLength ? longEngine : shortEngine;
+	}
+
+	@Override
+	public boolean requiresTags() {
+		return shortEngine.requiresTags() || longEngine.requiresTags();
+	}
+
+	@Override
+	public int maxLength() {
+		if (shortEngine.maxLength() < maxShortLength)
+			return shortEngine.maxLength();
+		return longEngine.maxLength();
+	}
+
+	@Override
+	public TreebankLanguagePack treebankLanguagePack() {
+		return shortEngine.treebankLanguagePack();
+	}
+}
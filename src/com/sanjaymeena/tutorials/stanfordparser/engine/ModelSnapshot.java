@@ -0,0 +1,176 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+
+/**
+ * Fast-start snapshot of a serialized parser model. The gzipped model is
+ * converted once into an uncompressed snapshot file which is memory-mapped
+ * when it is loaded: no inflating and no copying through stream buffers, and
+ * the pages of the file are shared by all the JVMs of a host through the page
+ * cache. A snapshot records the length and modification time of the model it
+ * was made from and is ignored once the model changes.
+ * 
+ * <pre>
+ * java com.sanjaymeena.tutorials.stanfordparser.engine.ModelSnapshot englishPCFG.ser.gz englishPCFG.snapshot
+ * </pre>
+ * 
+ * @author Sanjay_Meena
+ */
+public class ModelSnapshot {
+
+	private static final long MAGIC = 0x5350534e41503031L; // "SPSNAP01"
+	private static final int HEADER_LENGTH = 24;
+
+	private ModelSnapshot() {
+	}
+
+	/**
+	 * Load a parser from its snapshot if there is an up to date one, from the
+	 * serialized model otherwise.
+	 * 
+	 * @param model
+	 *            serialized model, e.g. englishPCFG.ser.gz
+	 * @param snapshot
+	 *            snapshot of the model, may be null
+	 * @return loaded parser
+	 */
+	public static LexicalizedParser loadParser(String model, String snapshot) {
+		LexicalizedParser parser = loadSnapshot(model, snapshot);
+		return parser != null ? parser : LexicalizedParser.loadModel(model);
+	}
+
+	/**
+	 * Convert a serialized model into a snapshot.
+	 * 
+	 * @param model
+	 *            serialized model
+	 * @param snapshot
+	 *            snapshot file to write
+	 * @throws IOException
+	 */
+	public static void write(String model, String snapshot) throws IOException {
+		LexicalizedParser parser = LexicalizedParser.loadModel(model);
+		File modelFile = new File(model);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(snapshot), 1 << 16));
+		try {
+			out.writeLong(MAGIC);
+			out.writeLong(modelFile.length());
+			out.writeLong(modelFile.lastModified());
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject(parser);
+			oos.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the parser of the snapshot, or null if there is no up to date
+	 *         snapshot
+	 */
+	private static LexicalizedParser loadSnapshot(String model, String snapshot) {
+		if (snapshot == null || !new File(snapshot).isFile())
+			return null;
+
+		long start = System.currentTimeMillis();
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(snapshot, "r");
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+
+			File modelFile = new File(model);
+			if (buffer.getLong() != MAGIC
+					|| buffer.getLong() != modelFile.length()
+					|| buffer.getLong() != modelFile.lastModified()) {
+				System.err.println("Model snapshot " + snapshot
+						+ " does not match " + model + ", ignoring it.");
+				return null;
+			}
+			buffer.position(HEADER_LENGTH);
+
+			LexicalizedParser parser = LexicalizedParser
+					.loadModel(new ObjectInputStream(new ByteBufferInputStream(
+							buffer)));
+			System.err.println("Loading parser from snapshot " + snapshot
+					+ " ... done [" + (System.currentTimeMillis() - start)
+					+ " ms].");
+			return parser;
+		} catch (Exception e) {
+			System.err.println("Could not load model snapshot " + snapshot
+					+ ": " + e);
+			return null;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a (mapped) byte buffer as a stream.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Convert a serialized model into a snapshot.
+	 * 
+	 * @param args
+	 *            serialized model and snapshot file
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: ModelSnapshot <model.ser.gz> <snapshot>");
+			System.exit(1);
+		}
+		write(args[0], args[1]);
+		System.err.println("Wrote model snapshot " + args[1]);
+	}
+}
@@ -0,0 +1,45 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+
+/**
+ * A parser which turns a tokenized sentence into a parse tree. Implementations
+ * are safe to use from many threads at once. The parser server and the local
+ * parser of {@code ParserUtilities} both parse through an engine created by
+ * {@link ParserEngines#load(java.util.Map)}.
+ * 
+ * @author Sanjay_Meena
+ */
+public interface ParserEngine {
+
+	/**
+	 * Parse one tokenized sentence.
+	 * 
+	 * @param sentence
+	 *            words of the sentence, tagged if {@link #requiresTags()}
+	 * @return best parse, or an (X ...) tree if the sentence could not be
+	 *         parsed
+	 */
+	Tree parse(List<? extends HasWord> sentence);
+
+	/**
+	 * @return true if the words passed to {@link #parse(List)} must carry POS
+	 *         tags
+	 */
+	boolean requiresTags();
+
+	/**
+	 * @return longest sentence, in words, the engine parses; longer sentences
+	 *         get an (X ...) tree
+	 */
+	int maxLength();
+
+	/**
+	 * @return language pack of the model, which provides its tokenizer
+	 */
+	TreebankLanguagePack treebankLanguagePack();
+}
@@ -0,0 +1,148 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.io.File;
+import java.util.Map;
+
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+import edu.stanford.nlp.parser.shiftreduce.ShiftReduceParser;
+
+/**
+ * Creates the {@link ParserEngine} selected by the "engine" preference of
+ * english_stanford_parser.xml:
+ * <ul>
+ * <li>pcfg: the PCFG parser of "lexparser" (default)</li>
+ * <li>shiftreduce: the shift-reduce parser of "srparser"</li>
+ * <li>length: the PCFG parser for sentences of at most "engineSwitchLength"
+ * words, the shift-reduce parser for longer ones</li>
+ * </ul>
+ * 
+ * @author Sanjay_Meena
+ */
+public final class ParserEngines {
+
+	/**
+	 * PCFG engine name.
+	 */
+	public static final String PCFG = "pcfg";
+	/**
+	 * Shift-reduce engine name.
+	 */
+	public static final String SHIFT_REDUCE = "shiftreduce";
+	/**
+	 * Length routing engine name.
+	 */
+	public static final String LENGTH = "length";
+
+	private ParserEngines() {
+	}
+
+	/**
+	 * Load the configured engine.
+	 * 
+	 * @param preferences
+	 *            preferences of english_stanford_parser.xml
+	 * @return the engine
+	 * @throws IllegalArgumentException
+	 *             if the engine is unknown
+	 */
+	public static ParserEngine load(Map<String, String> preferences) {
+		return load(preferences, engineName(preferences));
+	}
+
+	/**
+	 * Load the given engine with the models of the preferences.
+	 * 
+	 * @param preferences
+	 *            preferences of english_stanford_parser.xml
+	 * @param engine
+	 *            one of {@link #PCFG}, {@link #SHIFT_REDUCE} and
+	 *            {@link #LENGTH}
+	 * @return the engine
+	 * @throws IllegalArgumentException
+	 *             if the engine is unknown
+	 */
+	public static ParserEngine load(Map<String, String> preferences,
+			String engine) {
+		engine = engine.trim().toLowerCase();
+		System.err.println("engine = " + engine);
+
+		if (engine.equals(PCFG))
+			return loadPcfg(preferences);
+		if (engine.equals(SHIFT_REDUCE))
+			return loadShiftReduce(preferences);
+		if (engine.equals(LENGTH)) {
+			String switchLength = preferences.get("engineSwitchLength");
+			return new LengthRoutingParserEngine(loadPcfg(preferences),
+					loadShiftReduce(preferences), switchLength == null ? 30
+							: Integer.parseInt(switchLength.trim()));
+		}
+		throw new IllegalArgumentException("Unknown parser engine " + engine);
+	}
+
+	/**
+	 * Describe the configured engine and its options, for keys of caches
+	 * whose trees depend on them.
+	 * 
+	 * @param preferences
+	 *            preferences of english_stanford_parser.xml
+	 * @return e.g. "engine=pcfg,maxLength=80"
+	 */
+	public static String describe(Map<String, String> preferences) {
+		String description = "engine=" + engineName(preferences)
+				+ ",maxLength=" + preferences.get("maxLength");
+		if (engineName(preferences).equals(LENGTH))
+			description += ",engineSwitchLength="
+					+ preferences.get("engineSwitchLength");
+		return description;
+	}
+
+	/**
+	 * Describe the configured engine, its options and the model files it
+	 * loads, for keys of caches which outlive the process.
+	 * 
+	 * @param preferences
+	 *            preferences of english_stanford_parser.xml
+	 * @param tagged
+	 *            true if the sentences are tagged with the "postagger" model
+	 *            before they are parsed
+	 * @return the {@link #describe(Map) description} followed by the name,
+	 *         size and modification time of every model
+	 */
+	public static String fingerprint(Map<String, String> preferences,
+			boolean tagged) {
+		StringBuilder fingerprint = new StringBuilder(describe(preferences));
+		String engine = engineName(preferences);
+		if (!engine.equals(SHIFT_REDUCE))
+			appendModel(fingerprint, preferences.get("lexparser"));
+		if (!engine.equals(PCFG))
+			appendModel(fingerprint, preferences.get("srparser"));
+		if (tagged)
+			appendModel(fingerprint, preferences.get("postagger"));
+		return fingerprint.toString();
+	}
+
+	private static void appendModel(StringBuilder fingerprint, String model) {
+		File file = new File(model);
+		fingerprint.append(',').append(file.getName()).append(':')
+				.append(file.length()).append(':').append(file.lastModified());
+	}
+
+	private static String engineName(Map<String, String> preferences) {
+		String engine = preferences.get("engine");
+		return engine == null ? PCFG : engine.trim().toLowerCase();
+	}
+
+	private static ParserEngine loadPcfg(Map<String, String> preferences) {
+		LexicalizedParser lexparser = ModelSnapshot.loadParser(
+				preferences.get("lexparser"),
+				preferences.get("lexparserSnapshot"));
+		lexparser.setOptionFlags("-maxLength", preferences.get("maxLength"),
+				"-outputFormat", "oneline");
+		return new PcfgParserEngine(lexparser);
+	}
+
+	private static ParserEngine loadShiftReduce(Map<String, String> preferences) {
+		return new ShiftReduceParserEngine(ShiftReduceParser.loadModel(
+				preferences.get("srparser")));
+	}
+}
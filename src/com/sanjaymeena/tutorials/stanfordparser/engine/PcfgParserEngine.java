@@ -0,0 +1,91 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.common.ParserUtils;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParserQuery;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
+
+/**
+ * {@link ParserEngine} backed by the PCFG {@link LexicalizedParser}. The
+ * grammar is shared; every thread parses with its own
+ * {@link LexicalizedParserQuery}, which also keeps its charts between
+ * sentences, so parses of different threads do not wait for each other.
+ * 
+ * @author Sanjay_Meena
+ */
+public class PcfgParserEngine implements ParserEngine {
+
+	private final LexicalizedParser parser;
+	private final ThreadLocal<LexicalizedParserQuery> queries;
+
+	/**
+	 * @param parser
+	 *            loaded grammar
+	 */
+	public PcfgParserEngine(final LexicalizedParser parser) {
+		this.parser = parser;
+		this.queries = new ThreadLocal<LexicalizedParserQuery>() {
+			@Override
+			protected LexicalizedParserQuery initialValue() {
+				return parser.lexicalizedParserQuery();
+			}
+		};
+	}
+
+	/**
+	 * Parse the same way as {@link LexicalizedParser#parse(List)}.
+	 * 
+	 * @throws RuntimeInterruptedException
+	 *             if the thread is interrupted during the parse
+	 */
+	@Override
+	public Tree parse(List<? extends HasWord> sentence) {
+		try {
+			LexicalizedParserQuery query = queries.get();
+			if (query.parse(sentence)) {
+				Tree best = query.getBestParse();
+				// -10000 denotes unknown words
+				best.setScore(query.getPCFGScore() % -10000.0);
+				return best;
+			}
+		} catch (RuntimeInterruptedException e) {
+			// the parse was abandoned, there is nobody to return a tree to
+			throw e;
+		} catch (Exception e) {
+			System.err.println("Following exception caught during parsing:");
+			e.printStackTrace();
+		}
+		return ParserUtils.xTree(sentence);
+	}
+
+	@Override
+	public boolean requiresTags() {
+		return parser.requiresTags();
+	}
+
+	/**
+	 * The -maxLength option of the grammar.
+	 */
+	@Override
+	public int maxLength() {
+		int maxLength = parser.getOp().testOptions.maxLength;
+		return maxLength > 0 ? maxLength : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public TreebankLanguagePack treebankLanguagePack() {
+		return parser.treebankLanguagePack();
+	}
+
+	/**
+	 * @return the shared grammar
+	 */
+	public LexicalizedParser getParser() {
+		return parser;
+	}
+}
@@ -0,0 +1,58 @@
+package com.sanjaymeena.tutorials.stanfordparser.engine;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.common.ParserQuery;
+import edu.stanford.nlp.parser.common.ParserUtils;
+import edu.stanford.nlp.parser.shiftreduce.ShiftReduceParser;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+
+/**
+ * {@link ParserEngine} backed by the {@link ShiftReduceParser}, whose parse
+ * time grows linearly with the sentence length instead of cubically. It needs
+ * POS tagged words.
+ * 
+ * @author Sanjay_Meena
+ */
+public class ShiftReduceParserEngine implements ParserEngine {
+
+	private final ShiftReduceParser parser;
+
+	/**
+	 * @param parser
+	 *            loaded shift-reduce model
+	 */
+	public ShiftReduceParserEngine(ShiftReduceParser parser) {
+		this.parser = parser;
+	}
+
+	@Override
+	public Tree parse(List<? extends HasWord> sentence) {
+		try {
+			ParserQuery query = parser.parserQuery();
+			if (query.parse(sentence))
+				return query.getBestParse();
+		} catch (Exception e) {
+			System.err.println("Following exception caught during parsing:");
+			e.printStackTrace();
+		}
+		return ParserUtils.xTree(sentence);
+	}
+
+	@Override
+	public boolean requiresTags() {
+		return parser.requiresTags();
+	}
+
+	@Override
+	public int maxLength() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public TreebankLanguagePack treebankLanguagePack() {
+		return parser.treebankLanguagePack();
+	}
+}
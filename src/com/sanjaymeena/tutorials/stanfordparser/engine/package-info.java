@@ -0,0 +1,8 @@
+/**
+ * 
+ */
+/**
+ * @author sanjay_meena
+ *
+ */
+package com.sanjaymeena.tutorials.stanfordparser.engine;
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.sanjaymeena.tutorials.stanfordparser.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Level-gated log which writes to System.err on a background thread, so that
+ * the request path only pays for a level check and, for enabled messages, a
+ * queue offer. When the writer falls behind, messages are dropped and counted
+ * instead of blocking the caller.
+ * 
+ * @author Sanjay_Meena
+ */
+public class AsyncLog implements Runnable {
+
+	/**
+	 * Log levels, most severe first.
+	 */
+	public enum Level {
+		/**
+		 * Failures.
+		 */
+		ERROR,
+		/**
+		 * Rejected or abandoned work.
+		 */
+		WARN,
+		/**
+		 * Connections and startup.
+		 */
+		INFO,
+		/**
+		 * Every request, sentence and tree.
+		 */
+		DEBUG
+	}
+
+	private final Level level;
+	private final BlockingQueue<String> messages;
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Create the log and start its writer thread.
+	 * 
+	 * @param level
+	 *            most verbose level which is written
+	 * @param capacity
+	 *            messages queued before new ones are dropped
+	 */
+	public AsyncLog(Level level, int capacity) {
+		this.level = level;
+		this.messages = new ArrayBlockingQueue<String>(capacity);
+		Thread writer = new Thread(this, "parser-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @param name
+	 *            level name such as "INFO", null for INFO
+	 * @return the level
+	 */
+	public static Level level(String name) {
+		return name == null ? Level.INFO : Level.valueOf(name.trim()
+				.toUpperCase());
+	}
+
+	/**
+	 * Check the level before building an expensive message.
+	 * 
+	 * @param messageLevel
+	 *            level of the message
+	 * @return true if messages of that level are written
+	 */
+	public boolean isEnabled(Level messageLevel) {
+		return messageLevel.compareTo(level) <= 0;
+	}
+
+	/**
+	 * @param messageLevel
+	 *            level of the message
+	 * @param message
+	 *            message
+	 */
+	public void log(Level messageLevel, String message) {
+		if (isEnabled(messageLevel) && !messages.offer(message))
+			dropped.incrementAndGet();
+	}
+
+	/**
+	 * @return number of messages dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				System.err.println(messages.take());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.sanjaymeena.tutorials.stanfordparser.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with one bucket per power of two
+ * microseconds, from 1 microsecond to about 36 minutes. Percentiles are
+ * reported as the upper bound of their bucket, so they are at most twice the
+ * true value; that is plenty to tell a 5 ms parse from a 5 s one.
+ * 
+ * @author Sanjay_Meena
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sumNanos = new LongAdder();
+
+	/**
+	 * @param nanos
+	 *            duration to record
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(1, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * @return number of recorded durations
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of the recorded durations in milliseconds
+	 */
+	public double getSumMillis() {
+		return sumNanos.sum() / 1e6;
+	}
+
+	/**
+	 * @param quantile
+	 *            between 0 and 1
+	 * @return upper bound in milliseconds of the bucket holding the quantile,
+	 *         0 if nothing was recorded
+	 */
+	public double getPercentileMillis(double quantile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return (1L << (i + 1)) / 1000.0;
+		}
+		return (1L << BUCKETS) / 1000.0;
+	}
+}
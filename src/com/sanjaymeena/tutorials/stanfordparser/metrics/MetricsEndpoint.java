@@ -0,0 +1,54 @@
+package com.sanjaymeena.tutorials.stanfordparser.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plain-text scrape endpoint: GET /metrics on the metrics port answers with
+ * {@link ParserMetrics#scrape()}, one "name value" line per metric.
+ * 
+ * @author Sanjay_Meena
+ */
+public class MetricsEndpoint {
+
+	private MetricsEndpoint() {
+	}
+
+	/**
+	 * Start serving the metrics on a daemon thread.
+	 * 
+	 * @param port
+	 *            HTTP port
+	 * @param metrics
+	 *            metrics to serve
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public static void start(int port, final ParserMetrics metrics)
+			throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		// the default executor serves the requests on the dispatcher thread
+		server.start();
+	}
+}
@@ -0,0 +1,112 @@
+package com.sanjaymeena.tutorials.stanfordparser.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Read-only JMX view of {@link ParserMetrics}: every metric of
+ * {@link ParserMetrics#snapshot()} is an attribute of the same name, and the
+ * "scrape" operation returns the text of the {@link MetricsEndpoint}.
+ * 
+ * @author Sanjay_Meena
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	/**
+	 * Name the bean is registered under.
+	 */
+	public static final String OBJECT_NAME = "com.sanjaymeena.tutorials.stanfordparser:type=ParserMetrics";
+
+	private final ParserMetrics metrics;
+
+	/**
+	 * @param metrics
+	 *            metrics to expose
+	 */
+	public MetricsMBean(ParserMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server.
+	 * 
+	 * @param metrics
+	 *            metrics to expose
+	 */
+	public static void register(ParserMetrics metrics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new MetricsMBean(metrics), new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			System.err.println("Could not register the metrics MBean: " + e);
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Number value = metrics.snapshot().get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> snapshot = metrics.snapshot();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Number value = snapshot.get(attribute);
+			if (value != null)
+				list.add(new Attribute(attribute, value));
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: "
+				+ attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		if (actionName.equals("scrape"))
+			return metrics.scrape();
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Number> metric : metrics.snapshot().entrySet()) {
+			attributes.add(new MBeanAttributeInfo(metric.getKey(), metric
+					.getValue().getClass().getName(), metric.getKey(), true,
+					false, false));
+		}
+		MBeanOperationInfo scrape = new MBeanOperationInfo("scrape",
+				"All metrics as text", null, String.class.getName(),
+				MBeanOperationInfo.INFO);
+		return new MBeanInfo(getClass().getName(), "Parser server metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[] { scrape }, null);
+	}
+}
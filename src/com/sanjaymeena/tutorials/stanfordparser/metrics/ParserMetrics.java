@@ -0,0 +1,172 @@
+package com.sanjaymeena.tutorials.stanfordparser.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and per-stage latency histograms of the parser server.
+ * Recording is lock-free and cheap enough for the request path; the values
+ * are read through {@link #snapshot()}, which backs both the JMX
+ * {@link MetricsMBean} and the text of the {@link MetricsEndpoint}.
+ * 
+ * @author Sanjay_Meena
+ */
+public class ParserMetrics {
+
+	/**
+	 * Stage: setting up an accepted connection.
+	 */
+	public static final String ACCEPT = "accept";
+	/**
+	 * Stage: reading and decoding the frames of a connection.
+	 */
+	public static final String READ = "read";
+	/**
+	 * Stage: splitting a request into tokenized sentences.
+	 */
+	public static final String TOKENIZE = "tokenize";
+	/**
+	 * Stage: POS tagging one sentence.
+	 */
+	public static final String TAG = "tag";
+	/**
+	 * Stage: parsing one sentence.
+	 */
+	public static final String PARSE = "parse";
+	/**
+	 * Stage: encoding the trees of a response.
+	 */
+	public static final String SERIALIZE = "serialize";
+	/**
+	 * Stage: a whole request, from its arrival to its response.
+	 */
+	public static final String REQUEST = "request";
+	/**
+	 * Stage: a stream request, from its arrival to its first tree.
+	 */
+	public static final String FIRST_TREE = "first_tree";
+
+	private static final String[] STAGES = { ACCEPT, READ, TOKENIZE, TAG,
+			PARSE, SERIALIZE, REQUEST, FIRST_TREE };
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentMap<String, Supplier<Number>> gauges = new ConcurrentHashMap<String, Supplier<Number>>();
+
+	/**
+	 * Create the metrics with all the stages, so that they are reported before
+	 * their first request.
+	 */
+	public ParserMetrics() {
+		for (String stage : STAGES) {
+			stages.put(stage, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Add one to a counter.
+	 * 
+	 * @param name
+	 *            counter name, e.g. "requests"
+	 */
+	public void increment(String name) {
+		add(name, 1);
+	}
+
+	/**
+	 * @param name
+	 *            counter name
+	 * @param delta
+	 *            amount to add
+	 */
+	public void add(String name, long delta) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null)
+				counter = created;
+		}
+		counter.add(delta);
+	}
+
+	/**
+	 * Record the duration of a stage.
+	 * 
+	 * @param stage
+	 *            one of the stage constants
+	 * @param startNanos
+	 *            System.nanoTime() at the start of the stage
+	 */
+	public void recordSince(String stage, long startNanos) {
+		stages.get(stage).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Register a value which is read when the metrics are reported, such as
+	 * a queue depth.
+	 * 
+	 * @param name
+	 *            gauge name
+	 * @param gauge
+	 *            supplier of the current value
+	 */
+	public void gauge(String name, Supplier<Number> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @param stage
+	 *            one of the stage constants
+	 * @return latency histogram of the stage
+	 */
+	public LatencyHistogram getStage(String stage) {
+		return stages.get(stage);
+	}
+
+	/**
+	 * All the metrics by name: counters as "&lt;name&gt;_total", gauges by
+	 * their name, and for every stage "stage_&lt;stage&gt;_count",
+	 * "stage_&lt;stage&gt;_sum_millis" and
+	 * "stage_&lt;stage&gt;_p50_millis" (p90, p99).
+	 * 
+	 * @return metric values sorted by name
+	 */
+	public Map<String, Number> snapshot() {
+		Map<String, Number> snapshot = new TreeMap<String, Number>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			snapshot.put(counter.getKey() + "_total", counter.getValue().sum());
+		}
+		for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet()) {
+			snapshot.put(gauge.getKey(), gauge.getValue().get());
+		}
+		for (String stage : STAGES) {
+			LatencyHistogram histogram = stages.get(stage);
+			String prefix = "stage_" + stage + "_";
+			snapshot.put(prefix + "count", histogram.getCount());
+			snapshot.put(prefix + "sum_millis", histogram.getSumMillis());
+			for (double quantile : QUANTILES) {
+				snapshot.put(prefix + "p" + Math.round(quantile * 100)
+						+ "_millis", histogram.getPercentileMillis(quantile));
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return one "parser_&lt;name&gt; &lt;value&gt;" line per metric
+	 */
+	public String scrape() {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, Number> metric : snapshot().entrySet()) {
+			text.append("parser_").append(metric.getKey()).append(' ')
+					.append(metric.getValue()).append('\n');
+		}
+		return text.toString();
+	}
+}
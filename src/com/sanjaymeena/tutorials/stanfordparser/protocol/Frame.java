@@ -0,0 +1,81 @@
+package com.sanjaymeena.tutorials.stanfordparser.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One message exchanged between the parser server and its clients. The
+ * request id is chosen by the client and echoed back in every response so
+ * that several requests can be in flight on one connection.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserProtocol
+ */
+public class Frame {
+
+	private final byte type;
+	private final int requestId;
+	private final byte[] payload;
+
+	/**
+	 * @param type
+	 *            one of the frame types of {@link ParserProtocol}
+	 * @param requestId
+	 *            id of the request this frame belongs to
+	 * @param payload
+	 *            frame body
+	 */
+	public Frame(byte type, int requestId, byte[] payload) {
+		this.type = type;
+		this.requestId = requestId;
+		this.payload = payload;
+	}
+
+	/**
+	 * Create a frame whose body is the UTF-8 encoding of the given text.
+	 * 
+	 * @param type
+	 *            frame type
+	 * @param requestId
+	 *            request id
+	 * @param text
+	 *            frame body
+	 * @return frame
+	 */
+	public static Frame text(byte type, int requestId, String text) {
+		return new Frame(type, requestId, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return frame type
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return request id
+	 */
+	public int getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @return frame body
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return frame body decoded as UTF-8 text
+	 */
+	public String getText() {
+		return new String(payload, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return "Frame[type=" + type + ", requestId=" + requestId + ", length="
+				+ payload.length + "]";
+	}
+}
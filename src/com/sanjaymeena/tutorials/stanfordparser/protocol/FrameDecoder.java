@@ -0,0 +1,103 @@
+package com.sanjaymeena.tutorials.stanfordparser.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Cuts the bytes read from a channel into {@link Frame}s. The bytes are read
+ * into one direct buffer which is reused for the whole connection and only
+ * grows when a frame does not fit, so a request is read in time linear in its
+ * length and a frame split over several packets is simply completed by the
+ * next read.
+ * 
+ * @author Sanjay_Meena
+ * @see FrameEncoder
+ */
+public class FrameDecoder {
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+	/**
+	 * Read whatever the channel has available into the buffer.
+	 * 
+	 * @param channel
+	 *            connection channel
+	 * @return number of bytes read, -1 at the end of the stream
+	 * @throws IOException
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException {
+		return channel.read(buffer);
+	}
+
+	/**
+	 * Take the next complete frame out of the buffer.
+	 * 
+	 * @return the frame, or null if more bytes have to be read first
+	 * @throws IOException
+	 *             on a malformed frame
+	 */
+	public Frame poll() throws IOException {
+		buffer.flip();
+		try {
+			if (buffer.remaining() < 4)
+				return null;
+			int length = buffer.getInt(buffer.position());
+			if (length < ParserProtocol.HEADER_LENGTH
+					|| length > ParserProtocol.MAX_FRAME_LENGTH)
+				throw new IOException("Invalid frame length " + length);
+			if (buffer.remaining() < 4 + length) {
+				ensureCapacity(4 + length);
+				return null;
+			}
+
+			buffer.getInt();
+			byte type = buffer.get();
+			int requestId = buffer.getInt();
+			byte[] payload = new byte[length - ParserProtocol.HEADER_LENGTH];
+			buffer.get(payload);
+			return new Frame(type, requestId, payload);
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Block until the next frame has been read from the channel.
+	 * 
+	 * @param channel
+	 *            blocking connection channel
+	 * @return the frame, or null if the peer closed the connection between
+	 *         two frames
+	 * @throws IOException
+	 *             on a broken connection or a malformed frame
+	 */
+	public Frame read(ReadableByteChannel channel) throws IOException {
+		Frame frame;
+		while ((frame = poll()) == null) {
+			if (readFrom(channel) < 0) {
+				if (buffer.position() > 0)
+					throw new EOFException("Connection closed inside a frame");
+				return null;
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Grow the buffer, which is in read mode, so that it can hold a frame of
+	 * the given size.
+	 */
+	private void ensureCapacity(int frameSize) {
+		if (buffer.capacity() >= frameSize)
+			return;
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(frameSize,
+				2 * buffer.capacity()));
+		larger.put(buffer);
+		larger.flip();
+		buffer = larger;
+	}
+}
@@ -0,0 +1,61 @@
+package com.sanjaymeena.tutorials.stanfordparser.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes {@link Frame}s to a channel through one direct buffer which is reused
+ * for the whole connection. Not thread safe: the writers of a connection must
+ * take turns.
+ * 
+ * @author Sanjay_Meena
+ * @see FrameDecoder
+ */
+public class FrameEncoder {
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+	/**
+	 * Write a frame to a blocking channel.
+	 * 
+	 * @param channel
+	 *            blocking connection channel
+	 * @param frame
+	 *            frame to write
+	 * @throws IOException
+	 */
+	public void write(WritableByteChannel channel, Frame frame)
+			throws IOException {
+		ByteBuffer bytes = encode(frame);
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Encode a frame into the reusable buffer. The returned buffer is only
+	 * valid until the next call.
+	 * 
+	 * @param frame
+	 *            frame to encode
+	 * @return buffer holding the encoded frame, ready to be written
+	 */
+	public ByteBuffer encode(Frame frame) {
+		byte[] payload = frame.getPayload();
+		int size = 4 + ParserProtocol.HEADER_LENGTH + payload.length;
+		if (buffer.capacity() < size)
+			buffer = ByteBuffer.allocateDirect(Math.max(size,
+					2 * buffer.capacity()));
+
+		buffer.clear();
+		buffer.putInt(ParserProtocol.HEADER_LENGTH + payload.length);
+		buffer.put(frame.getType());
+		buffer.putInt(frame.getRequestId());
+		buffer.put(payload);
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,316 @@
+package com.sanjaymeena.tutorials.stanfordparser.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Wire protocol spoken between the parser server and
+ * {@code ParserUtilities}. A connection stays open for many requests. Every
+ * message is a length delimited {@link Frame}:
+ * 
+ * <pre>
+ * int  length     number of bytes that follow
+ * byte type       frame type
+ * int  requestId  id chosen by the client, echoed in the response
+ * byte[] payload  length - 5 bytes
+ * </pre>
+ * 
+ * Responses carry the id of their request and may arrive in any order.
+ * Frames are read with a {@link FrameDecoder} and written with a
+ * {@link FrameEncoder}.
+ * 
+ * @author Sanjay_Meena
+ */
+public final class ParserProtocol {
+
+	/**
+	 * Client request: parse the sentence in the payload.
+	 */
+	public static final byte PARSE = 1;
+	/**
+	 * Server response: Penn tree of the requested sentence.
+	 */
+	public static final byte TREE = 2;
+	/**
+	 * Server response: the request failed, the payload holds the reason.
+	 */
+	public static final byte ERROR = 3;
+	/**
+	 * Server response: the server has no capacity left for the request. The
+	 * payload holds the int number of milliseconds after which the client
+	 * may try again; it is empty if the server gives no hint.
+	 */
+	public static final byte BUSY = 4;
+	/**
+	 * Client request: split the document in the payload into sentences and
+	 * parse all of them.
+	 */
+	public static final byte DOCUMENT = 5;
+	/**
+	 * Client request: parse every sentence of the string list in the payload.
+	 */
+	public static final byte BATCH = 6;
+	/**
+	 * Server response to {@link #DOCUMENT} and {@link #BATCH}: string list
+	 * with one Penn tree per sentence in order. Sentences which could not be
+	 * parsed have an empty string.
+	 */
+	public static final byte TREES = 7;
+	/**
+	 * Sent by the client right after connecting, with the int bitmask of the
+	 * features it would like to use; the server answers with the bitmask of
+	 * the features it enabled for the connection, followed by the int credits
+	 * of the connection if it enabled {@link #FEATURE_CREDITS}. Connections
+	 * which skip it use no optional features.
+	 */
+	public static final byte HELLO = 8;
+	/**
+	 * Server response: {@link TreeCodec} encoding of the requested sentence.
+	 */
+	public static final byte BINARY_TREE = 9;
+	/**
+	 * Server response to {@link #DOCUMENT} and {@link #BATCH}:
+	 * {@link TreeCodec#encodeTrees(List)} encoding with one tree per sentence
+	 * in order.
+	 */
+	public static final byte BINARY_TREES = 10;
+	/**
+	 * Server notice sent right before the response of a request whose
+	 * sentences were parsed with less care than usual to keep up with the
+	 * load: string list with one entry per sentence in order, empty for the
+	 * sentences parsed normally, otherwise e.g. "split=3" (parsed in three
+	 * clause pieces), "maxLength=40" (pieces longer than 40 words were left
+	 * unparsed) or "engine=shiftreduce". Only sent to connections with
+	 * {@link #FEATURE_DEGRADATION_NOTICES}.
+	 */
+	public static final byte DEGRADED = 11;
+	/**
+	 * Client notice sent right before a request, with the int number of
+	 * milliseconds the client waits for its response. The server drops the
+	 * request, or abandons its parse, once that time has passed. Only sent on
+	 * connections with {@link #FEATURE_DEADLINES}.
+	 */
+	public static final byte DEADLINE = 12;
+	/**
+	 * Server response: the deadline of the request passed before it was
+	 * parsed.
+	 */
+	public static final byte TIMEOUT = 13;
+	/**
+	 * Client request: split the document into sentences and send the tree of
+	 * every sentence as soon as it is parsed. The payload holds the int
+	 * reorder window followed by the UTF-8 document. With a window of 0 the
+	 * trees are sent in the order the sentences finish; otherwise they are
+	 * sent in the order of the sentences, and at most that many sentences
+	 * are parsed ahead of the next one to be sent. The server answers with
+	 * {@link #STREAM_TREE} or {@link #STREAM_BINARY_TREE} frames followed by
+	 * {@link #STREAM_END}, or by {@link #TIMEOUT} or {@link #ERROR} if the
+	 * stream ended early.
+	 */
+	public static final byte STREAM = 14;
+	/**
+	 * Server response: tree of one sentence of a {@link #STREAM} request, as
+	 * the int index of the sentence, the int length and UTF-8 bytes of its
+	 * degradation (empty for a normal parse) and the UTF-8 Penn tree, which
+	 * is empty if the sentence could not be parsed.
+	 */
+	public static final byte STREAM_TREE = 15;
+	/**
+	 * Server response: {@link #STREAM_TREE} with the {@link TreeCodec}
+	 * encoding of the tree, sent to connections with
+	 * {@link #FEATURE_BINARY_TREES}.
+	 */
+	public static final byte STREAM_BINARY_TREE = 16;
+	/**
+	 * Server response: last frame of a {@link #STREAM} request, with the int
+	 * number of sentences sent.
+	 */
+	public static final byte STREAM_END = 17;
+
+	/**
+	 * Feature: trees are sent as {@link #BINARY_TREE} and
+	 * {@link #BINARY_TREES} instead of Penn strings.
+	 */
+	public static final int FEATURE_BINARY_TREES = 1;
+	/**
+	 * Feature: the server reports degraded parses with {@link #DEGRADED}
+	 * frames.
+	 */
+	public static final int FEATURE_DEGRADATION_NOTICES = 2;
+	/**
+	 * Feature: the client announces the deadlines of its requests with
+	 * {@link #DEADLINE} frames.
+	 */
+	public static final int FEATURE_DEADLINES = 4;
+	/**
+	 * Feature: the server tells in its {@link #HELLO} how many requests the
+	 * client may have outstanding on the connection. Requests beyond the
+	 * credits are answered with {@link #BUSY} right away, so the client keeps
+	 * within them.
+	 */
+	public static final int FEATURE_CREDITS = 8;
+	/**
+	 * All the features this version of the protocol supports.
+	 */
+	public static final int SUPPORTED_FEATURES = FEATURE_BINARY_TREES
+			| FEATURE_DEGRADATION_NOTICES | FEATURE_DEADLINES | FEATURE_CREDITS;
+
+	/**
+	 * Largest frame accepted by either side.
+	 */
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Number of bytes of the frame header which follow the length field.
+	 */
+	static final int HEADER_LENGTH = 5;
+
+	private ParserProtocol() {
+	}
+
+	/**
+	 * @param type
+	 *            type of a frame sent by the server
+	 * @return true if the frame is the last one of the response to its
+	 *         request, false for notices and the trees of a stream
+	 */
+	public static boolean endsResponse(byte type) {
+		return type != DEGRADED && type != STREAM_TREE
+				&& type != STREAM_BINARY_TREE && type != HELLO;
+	}
+
+	/**
+	 * @param requestId
+	 *            id of the rejected request
+	 * @param retryAfterMillis
+	 *            time after which the client may try again
+	 * @return {@link #BUSY} frame with the retry-after hint
+	 */
+	public static Frame busy(int requestId, long retryAfterMillis) {
+		return new Frame(BUSY, requestId, ByteBuffer.allocate(4)
+				.putInt((int) Math.min(retryAfterMillis, Integer.MAX_VALUE))
+				.array());
+	}
+
+	/**
+	 * @param busy
+	 *            {@link #BUSY} frame
+	 * @return time after which the client may try again, 0 if the server gave
+	 *         no hint
+	 */
+	public static long retryAfterMillis(Frame busy) {
+		byte[] payload = busy.getPayload();
+		return payload.length < 4 ? 0 : Math.max(0, ByteBuffer.wrap(payload)
+				.getInt());
+	}
+
+	/**
+	 * Encode a list of strings as a frame body: the number of strings followed
+	 * by the length and UTF-8 bytes of every string.
+	 * 
+	 * @param strings
+	 *            strings to encode
+	 * @return frame body
+	 */
+	public static byte[] encodeStrings(List<String> strings) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(strings.size());
+			for (String string : strings) {
+				byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(utf8.length);
+				out.write(utf8);
+			}
+		} catch (IOException e) {
+			// cannot happen on a byte array
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encode the body of a {@link #STREAM_TREE} or {@link #STREAM_BINARY_TREE}
+	 * frame.
+	 * 
+	 * @param index
+	 *            index of the sentence in the document
+	 * @param degradation
+	 *            degradation of the parse, empty for a normal parse
+	 * @param tree
+	 *            encoded tree, empty if the sentence could not be parsed
+	 * @return frame body
+	 */
+	public static byte[] encodeStreamTree(int index, String degradation,
+			byte[] tree) {
+		byte[] utf8 = degradation.getBytes(StandardCharsets.UTF_8);
+		return ByteBuffer.allocate(8 + utf8.length + tree.length)
+				.putInt(index).putInt(utf8.length).put(utf8).put(tree)
+				.array();
+	}
+
+	/**
+	 * @param payload
+	 *            body of a {@link #STREAM_TREE} or {@link #STREAM_BINARY_TREE}
+	 *            frame
+	 * @return index of the sentence
+	 */
+	public static int streamTreeIndex(byte[] payload) {
+		return ByteBuffer.wrap(payload).getInt();
+	}
+
+	/**
+	 * @param payload
+	 *            body of a {@link #STREAM_TREE} or {@link #STREAM_BINARY_TREE}
+	 *            frame
+	 * @return degradation of the parse, empty for a normal parse
+	 */
+	public static String streamTreeDegradation(byte[] payload) {
+		int length = ByteBuffer.wrap(payload, 4, 4).getInt();
+		return new String(payload, 8, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param payload
+	 *            body of a {@link #STREAM_TREE} or {@link #STREAM_BINARY_TREE}
+	 *            frame
+	 * @return encoded tree, empty if the sentence could not be parsed
+	 */
+	public static byte[] streamTreeBytes(byte[] payload) {
+		int start = 8 + ByteBuffer.wrap(payload, 4, 4).getInt();
+		return Arrays.copyOfRange(payload, start, payload.length);
+	}
+
+	/**
+	 * Decode a frame body written by {@link #encodeStrings(List)}.
+	 * 
+	 * @param payload
+	 *            frame body
+	 * @return decoded strings
+	 * @throws IOException
+	 *             if the body is malformed
+	 */
+	public static List<String> decodeStrings(byte[] payload) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		try {
+			int count = buffer.getInt();
+			List<String> strings = new ArrayList<String>(Math.min(count,
+					payload.length / 4));
+			for (int i = 0; i < count; i++) {
+				int length = buffer.getInt();
+				strings.add(new String(payload, buffer.position(), length,
+						StandardCharsets.UTF_8));
+				buffer.position(buffer.position() + length);
+			}
+			return strings;
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed string list", e);
+		}
+	}
+}
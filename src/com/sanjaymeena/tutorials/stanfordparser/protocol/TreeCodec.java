@@ -0,0 +1,213 @@
+package com.sanjaymeena.tutorials.stanfordparser.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * Compact binary encoding of parse trees, used instead of Penn bracket
+ * strings on connections which negotiated
+ * {@link ParserProtocol#FEATURE_BINARY_TREES}. A tree is written in preorder;
+ * every node starts with its number of children:
+ * 
+ * <pre>
+ * leaf:  varint 0, varint length, UTF-8 word
+ * inner: varint childCount, varint labelId [, varint length, UTF-8 label], children
+ * </pre>
+ * 
+ * Label ids index the shared table of Penn Treebank POS and phrase tags
+ * below; id {@link #LITERAL_LABEL} is followed by the label itself. The table
+ * is part of the protocol: entries may only be appended to it.
+ * 
+ * @author Sanjay_Meena
+ */
+public final class TreeCodec {
+
+	private static final String[] LABELS = { "ROOT", "S", "SBAR", "SBARQ",
+			"SINV", "SQ", "ADJP", "ADVP", "CONJP", "FRAG", "INTJ", "LST", "NAC",
+			"NP", "NX", "PP", "PRN", "PRT", "QP", "RRC", "UCP", "VP", "WHADJP",
+			"WHADVP", "WHNP", "WHPP", "X", "CC", "CD", "DT", "EX", "FW", "IN",
+			"JJ", "JJR", "JJS", "LS", "MD", "NN", "NNS", "NNP", "NNPS", "PDT",
+			"POS", "PRP", "PRP$", "RB", "RBR", "RBS", "RP", "SYM", "TO", "UH",
+			"VB", "VBD", "VBG", "VBN", "VBP", "VBZ", "WDT", "WP", "WP$", "WRB",
+			"#", "$", ".", ",", ":", "``", "''", "-LRB-", "-RRB-", "-NONE-" };
+
+	/**
+	 * Label id of a label which is not in the table and follows inline.
+	 */
+	private static final int LITERAL_LABEL = LABELS.length;
+
+	/**
+	 * Deepest tree decoded; parse trees are at most a few hundred levels deep,
+	 * deeper ones are malformed and would exhaust the stack.
+	 */
+	private static final int MAX_DEPTH = 1000;
+
+	private static final Map<String, Integer> LABEL_IDS = new HashMap<String, Integer>();
+	static {
+		for (int i = 0; i < LABELS.length; i++) {
+			LABEL_IDS.put(LABELS[i], i);
+		}
+	}
+
+	private TreeCodec() {
+	}
+
+	/**
+	 * @param tree
+	 *            tree to encode
+	 * @return encoded tree
+	 */
+	public static byte[] encode(Tree tree) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		writeTree(out, tree);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encode a list of trees, some of which may be null.
+	 * 
+	 * @param trees
+	 *            trees to encode
+	 * @return encoded trees
+	 */
+	public static byte[] encodeTrees(List<Tree> trees) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				256 * trees.size());
+		writeVarint(out, trees.size());
+		for (Tree tree : trees) {
+			if (tree == null) {
+				out.write(0);
+			} else {
+				out.write(1);
+				writeTree(out, tree);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param bytes
+	 *            encoded tree
+	 * @param factory
+	 *            factory which builds the nodes
+	 * @return decoded tree
+	 * @throws IOException
+	 *             if the bytes are malformed
+	 */
+	public static Tree decode(byte[] bytes, TreeFactory factory)
+			throws IOException {
+		try {
+			return readTree(ByteBuffer.wrap(bytes), factory, 0);
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed binary tree", e);
+		}
+	}
+
+	/**
+	 * Decode a list of trees written by {@link #encodeTrees(List)}.
+	 * 
+	 * @param bytes
+	 *            encoded trees
+	 * @param factory
+	 *            factory which builds the nodes
+	 * @return decoded trees, null where null was encoded
+	 * @throws IOException
+	 *             if the bytes are malformed
+	 */
+	public static List<Tree> decodeTrees(byte[] bytes, TreeFactory factory)
+			throws IOException {
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			int count = readVarint(in);
+			List<Tree> trees = new ArrayList<Tree>(Math.min(count,
+					bytes.length));
+			for (int i = 0; i < count; i++) {
+				trees.add(in.get() == 0 ? null : readTree(in, factory, 0));
+			}
+			return trees;
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed binary trees", e);
+		}
+	}
+
+	private static void writeTree(ByteArrayOutputStream out, Tree tree) {
+		Tree[] children = tree.children();
+		writeVarint(out, children.length);
+		if (children.length == 0) {
+			writeString(out, tree.value());
+			return;
+		}
+
+		Integer id = LABEL_IDS.get(tree.value());
+		if (id != null) {
+			writeVarint(out, id);
+		} else {
+			writeVarint(out, LITERAL_LABEL);
+			writeString(out, tree.value());
+		}
+		for (Tree child : children) {
+			writeTree(out, child);
+		}
+	}
+
+	private static Tree readTree(ByteBuffer in, TreeFactory factory, int depth) {
+		if (depth > MAX_DEPTH)
+			throw new IllegalArgumentException("Tree deeper than " + MAX_DEPTH);
+		int childCount = readVarint(in);
+		if (childCount == 0)
+			return factory.newLeaf(readString(in));
+
+		int id = readVarint(in);
+		String label = id == LITERAL_LABEL ? readString(in) : LABELS[id];
+		// every child takes at least one byte
+		if (childCount < 0 || childCount > in.remaining())
+			throw new IllegalArgumentException("Bad child count " + childCount);
+		List<Tree> children = new ArrayList<Tree>(childCount);
+		for (int i = 0; i < childCount; i++) {
+			children.add(readTree(in, factory, depth + 1));
+		}
+		return factory.newTreeNode(label, children);
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s) {
+		byte[] utf8 = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, utf8.length);
+		out.write(utf8, 0, utf8.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readVarint(in);
+		String s = new String(in.array(), in.arrayOffset() + in.position(),
+				length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+}
@@ -0,0 +1,261 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog.Level;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.ParserMetrics;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.FrameDecoder;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.FrameEncoder;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+
+/**
+ * A persistent, non-blocking client connection of the
+ * {@link EnglishStanfordParserServer}. Its {@link SelectorLoop} reads request
+ * frames as they arrive and hands every request to the worker pool, so that
+ * several requests of one client can be parsed at the same time. Workers
+ * queue their responses, which the loop writes as soon as the channel takes
+ * them.
+ * <p>
+ * A client may have at most
+ * {@link EnglishStanfordParserServer#connectionCredits} requests outstanding
+ * on a connection; the ones beyond are answered with
+ * {@link ParserProtocol#BUSY} at once, without taking a place in the worker
+ * pool. Clients with {@link ParserProtocol#FEATURE_CREDITS} learn their
+ * credits in the HELLO and keep within them.
+ * 
+ * @author Sanjay_Meena
+ */
+class ClientConnection {
+
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final SocketAddress remoteAddress;
+	private final SelectorLoop loop;
+	private final Executor workerPool;
+	private final FrameDecoder decoder = new FrameDecoder();
+	private final FrameEncoder encoder = new FrameEncoder();
+	private final Queue<Frame> responses = new ConcurrentLinkedQueue<Frame>();
+	/**
+	 * Ids of the requests admitted and not yet answered.
+	 */
+	private final Set<Integer> outstanding = Collections
+			.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * Features negotiated with {@link ParserProtocol#HELLO}.
+	 */
+	private volatile int features;
+
+	/**
+	 * Most deadlines kept for requests which have not arrived yet.
+	 */
+	private static final int MAX_PENDING_DEADLINES = 1024;
+
+	/**
+	 * Deadlines announced with
+	 * {@link ParserProtocol#DEADLINE} for requests which have not arrived yet,
+	 * only touched on the loop thread.
+	 */
+	private final Map<Integer, Deadline> deadlines = new HashMap<Integer, Deadline>();
+
+	/**
+	 * Encoded response which did not fit into the socket buffer yet, only
+	 * touched on the loop thread.
+	 */
+	private ByteBuffer unwritten;
+
+	/**
+	 * @param channel
+	 *            accepted client connection, in non-blocking mode
+	 * @param key
+	 *            registration of the channel with the loop
+	 * @param loop
+	 *            I/O loop serving this connection
+	 * @param workerPool
+	 *            pool which runs the parse requests
+	 * @throws IOException
+	 */
+	ClientConnection(SocketChannel channel, SelectionKey key,
+			SelectorLoop loop, Executor workerPool) throws IOException {
+		this.channel = channel;
+		this.key = key;
+		this.remoteAddress = channel.getRemoteAddress();
+		this.loop = loop;
+		this.workerPool = workerPool;
+	}
+
+	/**
+	 * Read what the client sent and dispatch the complete requests. Called on
+	 * the loop thread.
+	 */
+	void onReadable() {
+		long start = System.nanoTime();
+		try {
+			if (decoder.readFrom(channel) < 0) {
+				close();
+				return;
+			}
+
+			Frame frame;
+			while ((frame = decoder.poll()) != null) {
+				switch (frame.getType()) {
+				case ParserProtocol.PARSE:
+				case ParserProtocol.DOCUMENT:
+				case ParserProtocol.BATCH:
+				case ParserProtocol.STREAM:
+					Deadline deadline = deadlines.remove(frame.getRequestId());
+					if (outstanding.size() >= EnglishStanfordParserServer.connectionCredits) {
+						EnglishStanfordParserServer.metrics
+								.increment("credit_rejections");
+						send(ParserProtocol.busy(frame.getRequestId(),
+								EnglishStanfordParserServer.retryAfterMillis()));
+						break;
+					}
+					outstanding.add(frame.getRequestId());
+					workerPool.execute(new ParseRequestHandler(this, frame,
+							deadline == null ? Deadline.NONE : deadline));
+					break;
+				case ParserProtocol.DEADLINE:
+					if (frame.getPayload().length < 4) {
+						malformed(frame);
+						break;
+					}
+					if (deadlines.size() >= MAX_PENDING_DEADLINES
+							&& !deadlines.containsKey(frame.getRequestId())) {
+						send(Frame.text(ParserProtocol.ERROR,
+								frame.getRequestId(),
+								"Too many deadlines without a request"));
+						break;
+					}
+					deadlines.put(frame.getRequestId(), Deadline.after(ByteBuffer
+							.wrap(frame.getPayload()).getInt()));
+					break;
+				case ParserProtocol.HELLO:
+					if (frame.getPayload().length < 4) {
+						malformed(frame);
+						break;
+					}
+					features = ByteBuffer.wrap(frame.getPayload()).getInt()
+							& ParserProtocol.SUPPORTED_FEATURES;
+					ByteBuffer hello = ByteBuffer.allocate(8).putInt(features);
+					if (hasFeature(ParserProtocol.FEATURE_CREDITS))
+						hello.putInt(EnglishStanfordParserServer.connectionCredits);
+					send(new Frame(ParserProtocol.HELLO, frame.getRequestId(),
+							Arrays.copyOf(hello.array(), hello.position())));
+					break;
+				default:
+					send(Frame.text(ParserProtocol.ERROR, frame.getRequestId(),
+							"Unknown frame type " + frame.getType()));
+					break;
+				}
+			}
+			EnglishStanfordParserServer.metrics.recordSince(ParserMetrics.READ,
+					start);
+		} catch (IOException e) {
+			EnglishStanfordParserServer.log.log(Level.WARN, "Connection to "
+					+ remoteAddress + " failed: " + e);
+			close();
+		}
+	}
+
+	/**
+	 * Answer a frame whose payload is too short with
+	 * {@link ParserProtocol#ERROR}.
+	 * 
+	 * @param frame
+	 *            malformed frame
+	 */
+	private void malformed(Frame frame) {
+		EnglishStanfordParserServer.log.log(Level.WARN, "Malformed frame of type "
+				+ frame.getType() + " from " + remoteAddress);
+		send(Frame.text(ParserProtocol.ERROR, frame.getRequestId(),
+				"Malformed frame of type " + frame.getType()));
+	}
+
+	/**
+	 * @param feature
+	 *            one of the FEATURE constants of {@link ParserProtocol}
+	 * @return true if the client enabled the feature for this connection
+	 */
+	boolean hasFeature(int feature) {
+		return (features & feature) != 0;
+	}
+
+	/**
+	 * Queue a response frame for the client. Called from the worker threads.
+	 * 
+	 * @param frame
+	 *            response
+	 */
+	void send(Frame frame) {
+		if (ParserProtocol.endsResponse(frame.getType()))
+			outstanding.remove(frame.getRequestId());
+		if (!channel.isOpen())
+			return;
+		responses.add(frame);
+		loop.requestWrite(this);
+	}
+
+	/**
+	 * Write the queued responses until they are all written or the socket
+	 * buffer is full. Called on the loop thread.
+	 */
+	void flush() {
+		if (!key.isValid())
+			return;
+		try {
+			while (true) {
+				if (unwritten == null) {
+					Frame frame = responses.poll();
+					if (frame == null)
+						break;
+					unwritten = encoder.encode(frame);
+				}
+				channel.write(unwritten);
+				if (unwritten.hasRemaining()) {
+					// wait until the client has read some of it
+					key.interestOps(SelectionKey.OP_READ
+							| SelectionKey.OP_WRITE);
+					return;
+				}
+				unwritten = null;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			EnglishStanfordParserServer.log.log(Level.WARN, "Could not answer "
+					+ remoteAddress + ": " + e);
+			close();
+		}
+	}
+
+	/**
+	 * Close the connection, e.g. when it failed. Called on the loop thread.
+	 */
+	void close() {
+		// the read error and the loop may both close the connection
+		if (!key.isValid())
+			return;
+		EnglishStanfordParserServer.metrics.increment("connections_closed");
+		deadlines.clear();
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
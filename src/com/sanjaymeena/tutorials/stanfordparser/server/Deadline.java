@@ -0,0 +1,55 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a client wants the response to its request, measured
+ * on the {@link System#nanoTime()} clock of the server.
+ * 
+ * @author Sanjay_Meena
+ */
+class Deadline {
+
+	/**
+	 * Deadline of requests which wait as long as it takes.
+	 */
+	static final Deadline NONE = new Deadline(0L);
+
+	private final long nanoTime;
+
+	private Deadline(long nanoTime) {
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * @param millis
+	 *            time the client waits, from now
+	 * @return deadline millis milliseconds from now
+	 */
+	static Deadline after(long millis) {
+		return new Deadline(System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * @return true unless this is {@link #NONE}
+	 */
+	boolean isSet() {
+		return this != NONE;
+	}
+
+	/**
+	 * @return nanoseconds left until the deadline, 0 or less once it passed
+	 *         and Long.MAX_VALUE for {@link #NONE}
+	 */
+	long remainingNanos() {
+		return isSet() ? nanoTime - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return true if the deadline passed
+	 */
+	boolean hasPassed() {
+		return remainingNanos() <= 0;
+	}
+}
@@ -1,29 +1,43 @@
 package com.sanjaymeena.tutorials.stanfordparser.server;
 
 import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.List;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngine;
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngines;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog.Level;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.LatencyHistogram;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.MetricsEndpoint;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.MetricsMBean;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.ParserMetrics;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.DiskParseCache;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.ParseCache;
+import com.sanjaymeena.tutorials.stanfordparser.utilities.WarmUpCorpus;
 import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleDomParser;
 import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleElement;
 
 import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
 import edu.stanford.nlp.ling.TaggedWord;
-import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
-import edu.stanford.nlp.parser.lexparser.Options;
-import edu.stanford.nlp.parser.shiftreduce.ShiftReduceParser;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.trees.Tree;
 
@@ -36,7 +50,25 @@ public class EnglishStanfordParserServer {
 	private static HashMap<String, String> preferences = new HashMap<String, String>();
 	private static String CONFIG_FILE = "resources" + File.separator+ "english_stanford_parser.xml";
 	static MaxentTagger posTagger;
-	static LexicalizedParser lexparser;
+	static ParserEngine parserEngine;
+	static LengthScheduler scheduler;
+	static ScheduledExecutorService deadlineTimer;
+	static final ParserMetrics metrics = new ParserMetrics();
+	static AsyncLog log;
+	static ParseCache parseCache;
+	static DiskParseCache diskCache;
+	/**
+	 * Requests a client may have outstanding on one connection.
+	 */
+	static int connectionCredits;
+	/**
+	 * Sentences queued on the scheduler above which new requests are
+	 * rejected.
+	 */
+	static int maxQueuedSentences;
+
+	private static final long MIN_RETRY_AFTER_MILLIS = 10;
+	private static final long MAX_RETRY_AFTER_MILLIS = 10000;
 	
 	/**
 	 * @param config
@@ -70,6 +102,18 @@ public class EnglishStanfordParserServer {
 		}
 	}
 
+	/**
+	 * @param name
+	 *            preference name
+	 * @param defaultValue
+	 *            value used when the preference is not configured
+	 * @return integer value of the preference
+	 */
+	private static int intPreference(String name, int defaultValue) {
+		String value = preferences.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
 	/**
      * 
      */
@@ -77,7 +121,6 @@ public class EnglishStanfordParserServer {
 
 		// INITIALIZE PARSER
 	
-		String lexparserModel = null;
 		int port = 5556;
 		int maxLength = 40;
 		// variables needed to process the files to be parse
@@ -88,11 +131,14 @@ public class EnglishStanfordParserServer {
 
 		readconfig(CONFIG_FILE);
 
+		// the requests are only logged at level DEBUG
+		log = new AsyncLog(AsyncLog.level(preferences.get("logLevel")),
+				intPreference("logQueueSize", 10000));
+
 		// variables needed to process the files to be parse
 		port = Integer.parseInt(preferences.get("port"));
 		maxLength = Integer.parseInt(preferences.get("maxLength"));
 		
-		lexparserModel = preferences.get("lexparser");
 		postaggerModelFile = preferences.get("postagger");
 
 		sentenceDelimiter = preferences.get("sentence");
@@ -100,89 +146,155 @@ public class EnglishStanfordParserServer {
 		System.err.println("maxlength = " + maxLength);
 		System.err.println("port = " + port);
 		
-		// LexicalizedParser lp = null;
-		// so we load a serialized parser
-		String[] options = { "-maxLength", Integer.toString(maxLength),
-				"-outputFormat", "oneline" };
-
-		Options op = new Options();
-		op.setOptions(options);
-		
+		// load the tagger and the parser engine selected by the "engine"
+		// preference
 		try {
 			posTagger = new MaxentTagger(postaggerModelFile);
-			lexparser = LexicalizedParser.loadModel(lexparserModel);
-			lexparser.setOptionFlags(options);
-			
+			parserEngine = ParserEngines.load(preferences);
 
-		} catch (IllegalArgumentException e) {
+		} catch (RuntimeException e) {
+			e.printStackTrace();
 			System.err.println("Error loading parser, exiting...");
 			System.exit(0);
 		}
+
+		// cache of the trees of repeated sentences, keyed by the sentence and
+		// the parser options
+		int cacheSize = intPreference("cacheSize", 0);
+		if (cacheSize > 0) {
+			parseCache = new ParseCache(cacheSize,
+					intPreference("cacheMemory", 64) * 1024L * 1024L,
+					ParserEngines.describe(preferences));
+		}
+		System.err.println("cacheSize = " + cacheSize);
+		// trees of earlier runs and of the other processes sharing the cache
+		// directory; the server always tags before it parses
+		diskCache = DiskParseCache.open(preferences, true);
 		
 
-		// declare a server socket and a client socket for the server
-		// declare an input and an output stream
-		ServerSocket parseServer = null;
-		BufferedReader br;
-		PrintWriter outputWriter;
-		Socket clientSocket = null;
+		// worker pool which reads the requests of all connections and hands
+		// their sentences to the scheduler. When every worker is busy and the
+		// admission queue is full the request is answered with a BUSY frame
+		// instead of waiting.
+		int workers = intPreference("workers", Runtime.getRuntime()
+				.availableProcessors());
+		int queueSize = intPreference("queueSize", workers * 4);
+
+		System.err.println("workers = " + workers);
+		System.err.println("queueSize = " + queueSize);
+
+		// every connection may have this many requests outstanding, and no
+		// new request is admitted while the scheduler holds this many
+		// sentences, so the time a request waits stays bounded under a spike
+		connectionCredits = intPreference("connectionCredits", 2 * workers);
+		maxQueuedSentences = intPreference("maxQueuedSentences", 16 * workers);
+		System.err.println("connectionCredits = " + connectionCredits);
+		System.err.println("maxQueuedSentences = " + maxQueuedSentences);
+
+		ThreadPoolExecutor workerPool = new ThreadPoolExecutor(workers,
+				workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ParseWorkerThreadFactory("parse-worker-"),
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r,
+							ThreadPoolExecutor executor) {
+						((ParseRequestHandler) r).rejectBusy();
+					}
+				});
+
+		// the worker pool only tokenizes; the sentences are parsed on the
+		// short or the long lane of the scheduler by their length, so a short
+		// sentence never waits behind a long one
+		int longWorkers = intPreference("longWorkers", Math.max(1, workers / 4));
+		int degradedMaxLength = intPreference("degradedMaxLength", 40);
+		ParserEngine degradeEngine = null;
+		String degradeEngineName = preferences.get("degradeEngine");
+		if (degradeEngineName != null && !degradeEngineName.trim().isEmpty()) {
+			try {
+				degradeEngine = ParserEngines.load(preferences,
+						degradeEngineName);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				System.err.println("Degrade engine not loaded, long sentences are split instead");
+			}
+		}
+		scheduler = new LengthScheduler(workers, longWorkers, intPreference(
+				"shortSentenceLength", 20), Math.min(maxLength,
+				parserEngine.maxLength()), degradedMaxLength,
+				intPreference("degradeBacklog", 2 * longWorkers)
+						* LengthScheduler.cost(maxLength), degradeEngine,
+				degradeEngineName);
+
+		// abandons the parses of requests whose deadline passed
+		deadlineTimer = Executors
+				.newSingleThreadScheduledExecutor(new ParseWorkerThreadFactory(
+						"deadline-timer-"));
+
+		registerGauges(workerPool);
+		MetricsMBean.register(metrics);
+		int metricsPort = intPreference("metricsPort", 0);
+		if (metricsPort > 0) {
+			try {
+				MetricsEndpoint.start(metricsPort, metrics);
+				System.err.println("metrics = http://localhost:" + metricsPort
+						+ "/metrics");
+			} catch (IOException e) {
+				System.err.println("Could not serve metrics: " + e);
+			}
+		}
+
+		System.err.println("longWorkers = " + longWorkers);
+		System.err.println("degradedMaxLength = " + degradedMaxLength);
+
+		// run the warm-up corpus before the port is opened, so that clients
+		// never see the latency of a cold parser
+		warmUp(WarmUpCorpus.load(preferences.get("warmup")),
+				intPreference("warmupRounds", 0));
+
+		// a few I/O threads multiplex all the client connections; they only
+		// read and write frames and leave the parsing to the worker pool
+		int ioThreads = intPreference("ioThreads", 2);
+		System.err.println("ioThreads = " + ioThreads);
+		SelectorLoop[] loops = new SelectorLoop[ioThreads];
+
+		// declare a server socket channel and a client channel for the server
+		ServerSocketChannel parseServer = null;
+		SocketChannel clientChannel = null;
 		try {
-			parseServer = new ServerSocket(port);
+			for (int i = 0; i < ioThreads; i++) {
+				loops[i] = new SelectorLoop(workerPool);
+				Thread ioThread = new Thread(loops[i], "parser-io-" + (i + 1));
+				ioThread.setDaemon(true);
+				ioThread.start();
+			}
+			parseServer = ServerSocketChannel.open();
+			// connections are accepted as fast as they come and limited by
+			// their credits, the backlog only covers bursts of connects
+			parseServer.bind(new InetSocketAddress(port), intPreference(
+					"acceptBacklog", 50));
 		} catch (IOException e) {
 			System.err.println(e);
 		}
 
-		// Create a socket object from the ServerSocket to listen and accept
-		// connections.
-		// Open input and output streams
+		System.err.println("Parser server ready");
+
+		// Accept connections from the server channel and spread them over the
+		// I/O threads. Every connection stays open for many requests.
 
+		int connections = 0;
 		while (true) {
-			System.err.println("Waiting for Connection on Port: " + port);
+			log.log(Level.DEBUG, "Waiting for Connection on Port: " + port);
 			try {
-				clientSocket = parseServer.accept();
-				System.err.println("Connection Accepted From: "
-						+ clientSocket.getInetAddress());
-				br = new BufferedReader(new InputStreamReader(
-						new DataInputStream(clientSocket.getInputStream()),
-						"UTF-8"));
-				outputWriter = new PrintWriter(
-						new OutputStreamWriter(clientSocket.getOutputStream(),
-								StandardCharsets.UTF_8), true);
-
-				String doc = "";
-
-				do {
-					doc += br.readLine();
-				} while (br.ready());
-				System.err.println("received: " + doc);
-
-				// PARSE
-				try {
-					
-
-					Reader sr = new StringReader(doc);
-					List<List<HasWord>> sentences = MaxentTagger
-							.tokenizeText(sr);
-
-					List<TaggedWord> tSentence = posTagger.tagSentence(sentences
-							.get(0));
-					System.err.println("Taggedwords: " + tSentence);
-					Tree tree = lexparser.apply(tSentence);
-
-					String output = tree.toString();
-					outputWriter.println(output);
-
-					System.err.println("best factored parse:\n"
-							+ tree.toString());
-
-				} catch (Exception e) {
-					outputWriter.println("(ROOT (. .))");
-					outputWriter.println("-999999999.0");
-					e.printStackTrace();
-				}
-
-				outputWriter.flush();
-				outputWriter.close();
+				clientChannel = parseServer.accept();
+				long start = System.nanoTime();
+				clientChannel.socket().setTcpNoDelay(true);
+				if (log.isEnabled(Level.INFO))
+					log.log(Level.INFO, "Connection Accepted From: "
+							+ clientChannel.getRemoteAddress());
+				loops[connections++ % ioThreads].register(clientChannel);
+				metrics.increment("connections_accepted");
+				metrics.recordSince(ParserMetrics.ACCEPT, start);
 
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -191,6 +303,249 @@ public class EnglishStanfordParserServer {
 
 	}
 
+	/**
+	 * Report the load of the worker pool, the scheduler lanes and the cache.
+	 */
+	private static void registerGauges(final ThreadPoolExecutor workerPool) {
+		metrics.gauge("queue_depth", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return workerPool.getQueue().size();
+			}
+		});
+		metrics.gauge("active_workers", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return workerPool.getActiveCount();
+			}
+		});
+		scheduler.registerGauges(metrics);
+		metrics.gauge("log_dropped", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return log.getDropped();
+			}
+		});
+		if (diskCache != null) {
+			metrics.gauge("disk_cache_hits", new Supplier<Number>() {
+				@Override
+				public Number get() {
+					return diskCache.getHits();
+				}
+			});
+			metrics.gauge("disk_cache_misses", new Supplier<Number>() {
+				@Override
+				public Number get() {
+					return diskCache.getMisses();
+				}
+			});
+			metrics.gauge("disk_cache_size", new Supplier<Number>() {
+				@Override
+				public Number get() {
+					return diskCache.size();
+				}
+			});
+		}
+		if (parseCache == null)
+			return;
+		metrics.gauge("cache_hits", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return parseCache.getHits();
+			}
+		});
+		metrics.gauge("cache_misses", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return parseCache.getMisses();
+			}
+		});
+		metrics.gauge("cache_hit_rate", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				long lookups = parseCache.getHits() + parseCache.getMisses();
+				return lookups == 0 ? 0.0 : (double) parseCache.getHits()
+						/ lookups;
+			}
+		});
+		metrics.gauge("cache_evictions", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return parseCache.getEvictions();
+			}
+		});
+		metrics.gauge("cache_size", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return parseCache.size();
+			}
+		});
+	}
+
+	/**
+	 * Admission control of the requests which passed the worker pool.
+	 * 
+	 * @param sentences
+	 *            number of sentences of a request
+	 * @return true if the scheduler has room for them; a request is always
+	 *         admitted while no sentence is queued
+	 */
+	static boolean admit(int sentences) {
+		int queued = scheduler.queuedSentences();
+		return queued == 0 || queued + sentences <= maxQueuedSentences;
+	}
+
+	/**
+	 * Estimate when a rejected request may be admitted: the time the parse
+	 * workers need for the queued and running sentences at their mean parse
+	 * time.
+	 * 
+	 * @return retry-after hint of a BUSY frame
+	 */
+	static long retryAfterMillis() {
+		LatencyHistogram parse = metrics.getStage(ParserMetrics.PARSE);
+		double meanMillis = parse.getCount() == 0 ? 100 : parse
+				.getSumMillis() / parse.getCount();
+		long drain = (long) ((scheduler.queuedSentences() + scheduler
+				.runningSentences()) * meanMillis / scheduler.workers());
+		return Math.max(MIN_RETRY_AFTER_MILLIS,
+				Math.min(drain, MAX_RETRY_AFTER_MILLIS));
+	}
+
+	/**
+	 * Split the given text into tokenized sentences.
+	 * 
+	 * @param doc
+	 *            document received from the client
+	 * @return sentences of the document
+	 */
+	static List<List<HasWord>> tokenize(String doc) {
+		Reader sr = new StringReader(doc);
+		return MaxentTagger.tokenizeText(sr);
+	}
+
+	/**
+	 * Tag and parse one tokenized sentence.
+	 * 
+	 * @param sentence
+	 *            tokenized sentence
+	 * @return parse tree of the sentence
+	 */
+	static Tree parseSentence(List<HasWord> sentence) {
+		Tree cached = cachedParse(sentence);
+		if (cached != null)
+			return cached;
+
+		Tree tree = tagAndParse(sentence, parserEngine);
+
+		if (tree != null) {
+			if (parseCache != null)
+				parseCache.put(Sentence.listToString(sentence), tree);
+			if (diskCache != null)
+				diskCache.put(Sentence.listToString(sentence), tree);
+		}
+		return tree;
+	}
+
+	/**
+	 * @param sentence
+	 *            tokenized sentence
+	 * @return cached tree of the sentence, null if it is not cached
+	 */
+	static Tree cachedParse(List<HasWord> sentence) {
+		if (parseCache == null && diskCache == null)
+			return null;
+		String key = Sentence.listToString(sentence);
+		Tree tree = parseCache == null ? null : parseCache.get(key);
+		if (tree == null && diskCache != null) {
+			tree = diskCache.get(key);
+			if (tree != null && parseCache != null)
+				parseCache.put(key, tree);
+		}
+		return tree;
+	}
+
+	/**
+	 * @param sentence
+	 *            tokenized sentence
+	 * @return POS tagged sentence
+	 */
+	static List<TaggedWord> tag(List<HasWord> sentence) {
+		long start = System.nanoTime();
+		List<TaggedWord> tSentence = posTagger.tagSentence(sentence);
+		metrics.recordSince(ParserMetrics.TAG, start);
+		if (log.isEnabled(Level.DEBUG))
+			log.log(Level.DEBUG, "Taggedwords: " + tSentence);
+		return tSentence;
+	}
+
+	/**
+	 * @param sentence
+	 *            POS tagged sentence
+	 * @param engine
+	 *            parser engine
+	 * @return parse tree of the sentence
+	 */
+	static Tree parse(List<TaggedWord> sentence, ParserEngine engine) {
+		long start = System.nanoTime();
+		Tree tree = engine.parse(sentence);
+		metrics.recordSince(ParserMetrics.PARSE, start);
+		return tree;
+	}
+
+	/**
+	 * Tag and parse one tokenized sentence with the given engine, without
+	 * consulting the cache.
+	 */
+	static Tree tagAndParse(List<HasWord> sentence, ParserEngine engine) {
+		return parse(tag(sentence), engine);
+	}
+
+	/**
+	 * Run the warm-up corpus through the tagger and the parser, so that the
+	 * models are paged in and the parsing loops are compiled.
+	 * 
+	 * @param corpus
+	 *            warm-up sentences
+	 * @param rounds
+	 *            number of times the corpus is parsed, 0 to skip the warm-up
+	 */
+	static void warmUp(List<String> corpus, int rounds) {
+		if (rounds <= 0)
+			return;
+		long start = System.currentTimeMillis();
+		for (int round = 0; round < rounds; round++) {
+			for (String text : corpus) {
+				for (List<HasWord> sentence : tokenize(text)) {
+					tagAndParse(sentence, parserEngine);
+				}
+			}
+		}
+		System.err.println("Warm-up of " + corpus.size() + " sentences x "
+				+ rounds + " done [" + (System.currentTimeMillis() - start)
+				+ " ms]");
+	}
+
+	/**
+	 * Names the worker threads of the parser server.
+	 */
+	static class ParseWorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+		private final String prefix;
+
+		ParseWorkerThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(false);
+			return t;
+		}
+	}
+
 	/**
 	 * @param args
 	 */
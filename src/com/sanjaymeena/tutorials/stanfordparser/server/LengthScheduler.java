@@ -0,0 +1,388 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngine;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.ParserMetrics;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.parser.common.ParserUtils;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * Schedules the sentences of the {@link EnglishStanfordParserServer} by their
+ * estimated cost. PCFG parse time grows with the cube of the sentence length,
+ * so short sentences run on their own lane of workers and never wait behind a
+ * long one.
+ * <p>
+ * When the backlog of the long lane grows beyond its limit, long sentences
+ * are degraded instead of queued at full cost: they are parsed with the
+ * degrade engine if one is configured, otherwise split at clause punctuation
+ * into pieces of at most the degraded maxLength, and pieces which are still
+ * longer are left unparsed. Sentences longer than the maxLength of the parser
+ * engine are always split rather than rejected. Every degradation is reported
+ * with the result.
+ * <p>
+ * A sentence which is submitted again while its parse is pending, e.g. the
+ * same headline sent by several clients at once, is not parsed again: the
+ * request attaches to the pending {@link SharedParse} and is counted as
+ * "coalesced".
+ * 
+ * @author Sanjay_Meena
+ */
+class LengthScheduler {
+
+	private final ThreadPoolExecutor shortLane;
+	private final ThreadPoolExecutor longLane;
+	private final int shortSentenceLength;
+	private final int maxLength;
+	private final int degradedMaxLength;
+	private final long degradeBacklog;
+	private final ParserEngine degradeEngine;
+	private final String degradeEngineName;
+
+	private final AtomicLong longBacklog = new AtomicLong();
+	private final ConcurrentHashMap<String, SharedParse> pending = new ConcurrentHashMap<String, SharedParse>();
+	private final TreeFactory treeFactory = new LabeledScoredTreeFactory();
+
+	/**
+	 * @param shortWorkers
+	 *            threads of the short lane
+	 * @param longWorkers
+	 *            threads of the long lane
+	 * @param shortSentenceLength
+	 *            longest sentence, in words, scheduled on the short lane
+	 * @param maxLength
+	 *            longest sentence the parser engine parses in one piece
+	 * @param degradedMaxLength
+	 *            longest piece parsed while the long lane is overloaded
+	 * @param degradeBacklog
+	 *            estimated cost of the long lane backlog above which long
+	 *            sentences are degraded
+	 * @param degradeEngine
+	 *            engine for long sentences while the long lane is overloaded,
+	 *            null to split them instead
+	 * @param degradeEngineName
+	 *            name of the degrade engine, reported with its parses
+	 */
+	LengthScheduler(int shortWorkers, int longWorkers, int shortSentenceLength,
+			int maxLength, int degradedMaxLength, long degradeBacklog,
+			ParserEngine degradeEngine, String degradeEngineName) {
+		this.shortLane = (ThreadPoolExecutor) Executors.newFixedThreadPool(
+				shortWorkers,
+				new EnglishStanfordParserServer.ParseWorkerThreadFactory(
+						"short-worker-"));
+		this.longLane = (ThreadPoolExecutor) Executors.newFixedThreadPool(
+				longWorkers,
+				new EnglishStanfordParserServer.ParseWorkerThreadFactory(
+						"long-worker-"));
+		this.shortSentenceLength = shortSentenceLength;
+		this.maxLength = maxLength;
+		this.degradedMaxLength = degradedMaxLength;
+		this.degradeBacklog = degradeBacklog;
+		this.degradeEngine = degradeEngine;
+		this.degradeEngineName = degradeEngineName;
+	}
+
+	/**
+	 * Estimated cost of parsing a sentence, in the units of the degrade
+	 * backlog.
+	 * 
+	 * @param length
+	 *            sentence length in words
+	 * @return cube of the length
+	 */
+	static long cost(int length) {
+		return (long) length * length * length;
+	}
+
+	/**
+	 * Report the queue depth and the busy threads of both lanes, and the
+	 * estimated backlog of the long lane.
+	 * 
+	 * @param metrics
+	 *            metrics of the server
+	 */
+	void registerGauges(ParserMetrics metrics) {
+		metrics.gauge("short_lane_queue_depth", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return shortLane.getQueue().size();
+			}
+		});
+		metrics.gauge("short_lane_active_workers", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return shortLane.getActiveCount();
+			}
+		});
+		metrics.gauge("long_lane_queue_depth", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return longLane.getQueue().size();
+			}
+		});
+		metrics.gauge("long_lane_active_workers", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return longLane.getActiveCount();
+			}
+		});
+		metrics.gauge("long_lane_backlog_cost", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return longBacklog.get();
+			}
+		});
+		metrics.gauge("pending_sentences", new Supplier<Number>() {
+			@Override
+			public Number get() {
+				return pending.size();
+			}
+		});
+	}
+
+	/**
+	 * @return number of sentences waiting on both lanes
+	 */
+	int queuedSentences() {
+		return shortLane.getQueue().size() + longLane.getQueue().size();
+	}
+
+	/**
+	 * @return number of sentences being parsed on both lanes
+	 */
+	int runningSentences() {
+		return shortLane.getActiveCount() + longLane.getActiveCount();
+	}
+
+	/**
+	 * @return number of parse threads of both lanes
+	 */
+	int workers() {
+		return shortLane.getMaximumPoolSize() + longLane.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return true if long sentences are currently degraded
+	 */
+	boolean isOverloaded() {
+		return longBacklog.get() > degradeBacklog;
+	}
+
+	/**
+	 * Schedule the parse of one tokenized sentence.
+	 * 
+	 * @param sentence
+	 *            tokenized sentence
+	 * @param deadline
+	 *            deadline of the request of the sentence; the sentence is
+	 *            dropped if it passes while the sentence is queued
+	 * @return future completed with the tree of the sentence, or with a null
+	 *         tree for an empty sentence. Cancelling it abandons the parse,
+	 *         unless other requests wait for the same sentence.
+	 */
+	CompletableFuture<ScheduledParse> submit(final List<HasWord> sentence,
+			Deadline deadline) {
+		final int length = sentence.size();
+		if (length == 0)
+			return CompletableFuture.completedFuture(new ScheduledParse(null,
+					""));
+
+		Tree cached = EnglishStanfordParserServer.cachedParse(sentence);
+		if (cached != null)
+			return CompletableFuture.completedFuture(new ScheduledParse(
+					cached, ""));
+
+		String key = Sentence.listToString(sentence);
+		SharedParse shared = pending.get(key);
+		if (shared != null) {
+			CompletableFuture<ScheduledParse> waiter = shared.attach(deadline);
+			if (waiter != null) {
+				EnglishStanfordParserServer.metrics.increment("coalesced");
+				return waiter;
+			}
+		}
+
+		boolean degrade = length > degradedMaxLength && isOverloaded();
+		if (degrade && degradeEngine != null) {
+			// the degrade engine is assumed to be linear in the length
+			return schedule(key, length, length, deadline,
+					new Supplier<ScheduledParse>() {
+						@Override
+						public ScheduledParse get() {
+							return new ScheduledParse(
+									EnglishStanfordParserServer.tagAndParse(
+											sentence, degradeEngine),
+									"engine=" + degradeEngineName);
+						}
+					});
+		}
+
+		final int limit = degrade ? degradedMaxLength : maxLength;
+		if (length <= limit) {
+			return schedule(key, length, cost(length), deadline,
+					new Supplier<ScheduledParse>() {
+						@Override
+						public ScheduledParse get() {
+							return new ScheduledParse(
+									EnglishStanfordParserServer
+											.parseSentence(sentence), "");
+						}
+					});
+		}
+
+		final List<List<HasWord>> pieces = clausePieces(sentence, limit);
+		int longestPiece = 0;
+		long cost = 0;
+		for (List<HasWord> piece : pieces) {
+			if (piece.size() <= limit) {
+				longestPiece = Math.max(longestPiece, piece.size());
+				cost += cost(piece.size());
+			}
+		}
+		return schedule(key, longestPiece, cost, deadline,
+				new Supplier<ScheduledParse>() {
+					@Override
+					public ScheduledParse get() {
+						return parsePieces(sentence, pieces, limit);
+					}
+				});
+	}
+
+	/**
+	 * Run a parse on the lane of its length and account for its cost until it
+	 * is done or abandoned on the long lane. If another request started
+	 * parsing the same sentence in the meantime, attach to its parse instead.
+	 */
+	private CompletableFuture<ScheduledParse> schedule(final String key,
+			int length, final long cost, Deadline deadline,
+			Supplier<ScheduledParse> parse) {
+		ParseTask task = new ParseTask(parse, deadline);
+		final SharedParse shared = new SharedParse(task);
+		SharedParse previous;
+		while ((previous = pending.putIfAbsent(key, shared)) != null) {
+			CompletableFuture<ScheduledParse> waiter = previous
+					.attach(deadline);
+			if (waiter != null) {
+				EnglishStanfordParserServer.metrics.increment("coalesced");
+				return waiter;
+			}
+			// finished, but not yet removed
+			pending.remove(key, previous);
+		}
+		CompletableFuture<ScheduledParse> waiter = shared.attach(deadline);
+		task.whenComplete(new BiConsumer<ScheduledParse, Throwable>() {
+			@Override
+			public void accept(ScheduledParse result, Throwable failure) {
+				pending.remove(key, shared);
+			}
+		});
+
+		if (length <= shortSentenceLength) {
+			shortLane.execute(task);
+			return waiter;
+		}
+
+		longBacklog.addAndGet(cost);
+		task.whenComplete(new BiConsumer<ScheduledParse, Throwable>() {
+			@Override
+			public void accept(ScheduledParse result, Throwable failure) {
+				longBacklog.addAndGet(-cost);
+			}
+		});
+		longLane.execute(task);
+		return waiter;
+	}
+
+	/**
+	 * Split a sentence after its clause punctuation and join neighbouring
+	 * clauses as long as they fit into the limit. Clauses longer than the
+	 * limit remain as pieces of their own.
+	 */
+	private static List<List<HasWord>> clausePieces(List<HasWord> sentence,
+			int limit) {
+		List<List<HasWord>> clauses = new ArrayList<List<HasWord>>();
+		List<HasWord> clause = new ArrayList<HasWord>();
+		for (HasWord word : sentence) {
+			clause.add(word);
+			if (isClauseBoundary(word.word())) {
+				clauses.add(clause);
+				clause = new ArrayList<HasWord>();
+			}
+		}
+		if (!clause.isEmpty())
+			clauses.add(clause);
+
+		List<List<HasWord>> pieces = new ArrayList<List<HasWord>>();
+		List<HasWord> piece = new ArrayList<HasWord>();
+		for (List<HasWord> next : clauses) {
+			if (!piece.isEmpty() && piece.size() + next.size() > limit) {
+				pieces.add(piece);
+				piece = new ArrayList<HasWord>();
+			}
+			piece.addAll(next);
+		}
+		pieces.add(piece);
+		return pieces;
+	}
+
+	private static boolean isClauseBoundary(String word) {
+		return word.equals(",") || word.equals(";") || word.equals(":")
+				|| word.equals("--");
+	}
+
+	/**
+	 * Tag the whole sentence, so that the tags do not suffer from the split,
+	 * then parse every piece which fits into the limit and join the pieces
+	 * under (ROOT (FRAG ...)).
+	 */
+	private ScheduledParse parsePieces(List<HasWord> sentence,
+			List<List<HasWord>> pieces, int limit) {
+		List<TaggedWord> tagged = EnglishStanfordParserServer.tag(sentence);
+
+		List<Tree> kids = new ArrayList<Tree>();
+		boolean unparsed = false;
+		int start = 0;
+		for (List<HasWord> piece : pieces) {
+			List<TaggedWord> words = tagged.subList(start, start
+					+ piece.size());
+			start += piece.size();
+			if (piece.size() > limit) {
+				kids.add(ParserUtils.xTree(words));
+				unparsed = true;
+				continue;
+			}
+			Tree tree = EnglishStanfordParserServer.parse(words,
+					EnglishStanfordParserServer.parserEngine);
+			if (tree.value().equals("ROOT")) {
+				Collections.addAll(kids, tree.children());
+			} else {
+				kids.add(tree);
+			}
+		}
+
+		Tree frag = treeFactory.newTreeNode("FRAG", kids);
+		Tree root = treeFactory.newTreeNode("ROOT",
+				Collections.singletonList(frag));
+
+		String degradation = pieces.size() > 1 ? "split=" + pieces.size() : "";
+		if (unparsed)
+			degradation += (degradation.isEmpty() ? "" : ",") + "maxLength="
+					+ limit;
+		return new ScheduledParse(root, degradation);
+	}
+}
@@ -0,0 +1,293 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog.Level;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.ParserMetrics;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.TreeCodec;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Reads one request of a {@link ClientConnection} on a worker thread of the
+ * {@link EnglishStanfordParserServer}, schedules its sentences on the
+ * {@link LengthScheduler} and writes the trees back once all of them are
+ * parsed. The trees of a stream request are written one by one by its
+ * {@link StreamResponse}.
+ * 
+ * @author Sanjay_Meena
+ */
+class ParseRequestHandler implements Runnable {
+
+	private final ClientConnection connection;
+	private final Frame request;
+	private final Deadline deadline;
+	private final long arrivalNanos = System.nanoTime();
+
+	/**
+	 * @param connection
+	 *            connection the request was received on
+	 * @param request
+	 *            {@link ParserProtocol#PARSE}, {@link ParserProtocol#DOCUMENT},
+	 *            {@link ParserProtocol#BATCH} or {@link ParserProtocol#STREAM}
+	 *            frame
+	 * @param deadline
+	 *            deadline announced by the client for the request
+	 */
+	ParseRequestHandler(ClientConnection connection, Frame request,
+			Deadline deadline) {
+		this.connection = connection;
+		this.request = request;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public void run() {
+		// the client gave up while the request was queued
+		if (deadline.hasPassed()) {
+			timeout();
+			return;
+		}
+
+		ParserMetrics metrics = EnglishStanfordParserServer.metrics;
+		AsyncLog log = EnglishStanfordParserServer.log;
+		metrics.increment("requests");
+
+		// PARSE
+		try {
+			long start = System.nanoTime();
+			List<List<HasWord>> sentences;
+			if (request.getType() == ParserProtocol.PARSE) {
+				String doc = request.getText();
+				if (log.isEnabled(Level.DEBUG))
+					log.log(Level.DEBUG, "received: " + doc);
+				sentences = EnglishStanfordParserServer.tokenize(doc).subList(
+						0, 1);
+			} else {
+				sentences = sentences();
+				if (log.isEnabled(Level.DEBUG))
+					log.log(Level.DEBUG, "received: " + sentences.size()
+							+ " sentences");
+			}
+			metrics.recordSince(ParserMetrics.TOKENIZE, start);
+
+			// a spike is turned away with a retry-after hint rather than
+			// queued, so the requests which are admitted wait a bounded time
+			if (!EnglishStanfordParserServer.admit(sentences.size())) {
+				rejectBusy();
+				return;
+			}
+			metrics.add("sentences", sentences.size());
+
+			if (request.getType() == ParserProtocol.STREAM) {
+				// the trees are sent one by one as they are parsed
+				new StreamResponse(connection, request.getRequestId(),
+						sentences, StreamResponse.window(request.getPayload()),
+						deadline, arrivalNanos).start();
+				return;
+			}
+
+			// the sentences are parsed on the scheduler lanes; the response
+			// is sent by the lane thread which finishes the last of them
+			final List<CompletableFuture<ScheduledParse>> parses = new ArrayList<CompletableFuture<ScheduledParse>>(
+					sentences.size());
+			for (List<HasWord> sentence : sentences) {
+				parses.add(EnglishStanfordParserServer.scheduler.submit(
+						sentence, deadline));
+			}
+
+			final ScheduledFuture<?> expiry = expireAtDeadline(parses);
+			CompletableFuture.allOf(
+					parses.toArray(new CompletableFuture<?>[parses.size()]))
+					.whenComplete(new BiConsumer<Void, Throwable>() {
+						@Override
+						public void accept(Void done, Throwable failure) {
+							if (expiry != null)
+								expiry.cancel(false);
+							respond(parses);
+						}
+					});
+
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * At the deadline of the request, drop its queued sentences and interrupt
+	 * the running ones, so that their lane threads move on.
+	 * 
+	 * @return the expiry timer, null if the request has no deadline
+	 */
+	private ScheduledFuture<?> expireAtDeadline(
+			final List<CompletableFuture<ScheduledParse>> parses) {
+		if (!deadline.isSet())
+			return null;
+		return EnglishStanfordParserServer.deadlineTimer.schedule(
+				new Runnable() {
+					@Override
+					public void run() {
+						for (CompletableFuture<ScheduledParse> parse : parses) {
+							parse.cancel(true);
+						}
+					}
+				}, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Send the trees of the request, preceded by a
+	 * {@link ParserProtocol#DEGRADED} notice if any of them was degraded.
+	 */
+	private void respond(List<CompletableFuture<ScheduledParse>> parses) {
+		ParserMetrics metrics = EnglishStanfordParserServer.metrics;
+		AsyncLog log = EnglishStanfordParserServer.log;
+		int requestId = request.getRequestId();
+		try {
+			List<Tree> trees = new ArrayList<Tree>(parses.size());
+			List<String> degradations = new ArrayList<String>(parses.size());
+			boolean degraded = false;
+			for (CompletableFuture<ScheduledParse> parse : parses) {
+				try {
+					ScheduledParse result = parse.join();
+					trees.add(result.tree);
+					degradations.add(result.degradation);
+					degraded |= !result.degradation.isEmpty();
+				} catch (CancellationException e) {
+					timeout();
+					return;
+				} catch (CompletionException e) {
+					if (e.getCause() instanceof TimeoutException) {
+						timeout();
+						return;
+					}
+					if (request.getType() == ParserProtocol.PARSE)
+						throw e;
+					e.getCause().printStackTrace();
+					metrics.increment("failures");
+					trees.add(null);
+					degradations.add("");
+				}
+			}
+
+			long start = System.nanoTime();
+			if (degraded) {
+				metrics.increment("degraded_requests");
+				log.log(Level.INFO, "degraded: " + degradations);
+				if (connection
+						.hasFeature(ParserProtocol.FEATURE_DEGRADATION_NOTICES))
+					connection.send(new Frame(ParserProtocol.DEGRADED,
+							requestId, ParserProtocol
+									.encodeStrings(degradations)));
+			}
+
+			if (request.getType() == ParserProtocol.PARSE) {
+				Tree tree = trees.get(0);
+				if (connection.hasFeature(ParserProtocol.FEATURE_BINARY_TREES)) {
+					connection.send(new Frame(ParserProtocol.BINARY_TREE,
+							requestId, TreeCodec.encode(tree)));
+				} else {
+					String output = tree.toString();
+					connection.send(Frame.text(ParserProtocol.TREE, requestId,
+							output));
+				}
+
+				if (log.isEnabled(Level.DEBUG))
+					log.log(Level.DEBUG, "best factored parse:\n" + tree);
+			} else {
+				if (connection.hasFeature(ParserProtocol.FEATURE_BINARY_TREES)) {
+					connection.send(new Frame(ParserProtocol.BINARY_TREES,
+							requestId, TreeCodec.encodeTrees(trees)));
+				} else {
+					List<String> output = new ArrayList<String>(trees.size());
+					for (Tree tree : trees) {
+						output.add(tree == null ? "" : tree.toString());
+					}
+					connection.send(new Frame(ParserProtocol.TREES, requestId,
+							ParserProtocol.encodeStrings(output)));
+				}
+			}
+			metrics.recordSince(ParserMetrics.SERIALIZE, start);
+			metrics.recordSince(ParserMetrics.REQUEST, arrivalNanos);
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Answer the request with a {@link ParserProtocol#TIMEOUT} frame.
+	 */
+	private void timeout() {
+		EnglishStanfordParserServer.metrics.increment("timeouts");
+		EnglishStanfordParserServer.log.log(Level.WARN, "Deadline of request "
+				+ request.getRequestId() + " passed");
+		connection.send(Frame.text(ParserProtocol.TIMEOUT,
+				request.getRequestId(), "Deadline exceeded"));
+		EnglishStanfordParserServer.metrics.recordSince(ParserMetrics.REQUEST,
+				arrivalNanos);
+	}
+
+	/**
+	 * Answer the request with an {@link ParserProtocol#ERROR} frame.
+	 */
+	private void fail(Exception e) {
+		Throwable cause = e instanceof CompletionException
+				&& e.getCause() != null ? e.getCause() : e;
+		EnglishStanfordParserServer.metrics.increment("failures");
+		connection.send(Frame.text(ParserProtocol.ERROR,
+				request.getRequestId(), String.valueOf(cause)));
+		cause.printStackTrace();
+		EnglishStanfordParserServer.metrics.recordSince(ParserMetrics.REQUEST,
+				arrivalNanos);
+	}
+
+	/**
+	 * Answer the request with a {@link ParserProtocol#BUSY} frame which tells
+	 * the client when to try again. Called when the worker pool or the
+	 * scheduler cannot admit this request.
+	 */
+	void rejectBusy() {
+		EnglishStanfordParserServer.metrics.increment("busy");
+		long retryAfter = EnglishStanfordParserServer.retryAfterMillis();
+		EnglishStanfordParserServer.log.log(Level.WARN,
+				"Server busy, rejecting request " + request.getRequestId()
+						+ ", retry after " + retryAfter + " ms");
+		connection.send(ParserProtocol.busy(request.getRequestId(),
+				retryAfter));
+	}
+
+	/**
+	 * Tokenized sentences of a document, stream or batch request. Every
+	 * string of a batch is one sentence, even if the tokenizer would split it.
+	 */
+	private List<List<HasWord>> sentences() throws Exception {
+		if (request.getType() == ParserProtocol.DOCUMENT)
+			return EnglishStanfordParserServer.tokenize(request.getText());
+		if (request.getType() == ParserProtocol.STREAM)
+			return EnglishStanfordParserServer.tokenize(StreamResponse
+					.document(request.getPayload()));
+
+		List<String> batch = ParserProtocol.decodeStrings(request.getPayload());
+		List<List<HasWord>> sentences = new ArrayList<List<HasWord>>(
+				batch.size());
+		for (String text : batch) {
+			List<HasWord> sentence = new ArrayList<HasWord>();
+			for (List<HasWord> part : EnglishStanfordParserServer.tokenize(text)) {
+				sentence.addAll(part);
+			}
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+}
@@ -0,0 +1,92 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Parse of one sentence queued on a {@link LengthScheduler} lane, completed
+ * with its result. Cancelling it with {@code cancel(true)} drops it if it is
+ * still queued and interrupts the lane thread if it is running; the PCFG
+ * parser checks the interrupt flag while it fills its charts, so the thread
+ * is free for the next sentence right away. A task whose deadline passed
+ * while it was queued is completed with a {@link TimeoutException} without
+ * being parsed; requests which share the parse extend the deadline to the
+ * latest of theirs.
+ * 
+ * @author Sanjay_Meena
+ */
+class ParseTask extends CompletableFuture<ScheduledParse> implements Runnable {
+
+	private final Supplier<ScheduledParse> parse;
+	private volatile Deadline deadline;
+
+	/**
+	 * Thread running the parse, guarded by this.
+	 */
+	private Thread runner;
+
+	/**
+	 * @param parse
+	 *            the parse to run
+	 * @param deadline
+	 *            deadline of the request of the sentence
+	 */
+	ParseTask(Supplier<ScheduledParse> parse, Deadline deadline) {
+		this.parse = parse;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public void run() {
+		if (isDone())
+			return;
+		if (deadline.hasPassed()) {
+			completeExceptionally(new TimeoutException("Deadline exceeded"));
+			return;
+		}
+
+		synchronized (this) {
+			if (isDone())
+				return;
+			runner = Thread.currentThread();
+		}
+		try {
+			complete(parse.get());
+		} catch (RuntimeException e) {
+			completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				runner = null;
+				// do not leak an interrupt into the next task of the thread
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Keep the parse in the queue until the deadline of another request
+	 * waiting for it has passed, too.
+	 * 
+	 * @param other
+	 *            deadline of the other request
+	 */
+	synchronized void extendDeadline(Deadline other) {
+		if (!deadline.isSet())
+			return;
+		if (!other.isSet() || other.remainingNanos() > deadline.remainingNanos())
+			deadline = other;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled && mayInterruptIfRunning) {
+			synchronized (this) {
+				if (runner != null)
+					runner.interrupt();
+			}
+		}
+		return cancelled;
+	}
+}
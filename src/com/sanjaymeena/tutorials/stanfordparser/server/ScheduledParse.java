@@ -0,0 +1,26 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Tree of one sentence scheduled by the {@link LengthScheduler}, together with
+ * the degradation it was parsed with.
+ * 
+ * @author Sanjay_Meena
+ */
+class ScheduledParse {
+
+	/**
+	 * Parse tree, null if the sentence was empty.
+	 */
+	final Tree tree;
+	/**
+	 * Degradation as reported in a DEGRADED frame, empty for a normal parse.
+	 */
+	final String degradation;
+
+	ScheduledParse(Tree tree, String degradation) {
+		this.tree = tree;
+		this.degradation = degradation;
+	}
+}
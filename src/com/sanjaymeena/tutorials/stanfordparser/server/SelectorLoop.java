@@ -0,0 +1,110 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * One I/O thread of the {@link EnglishStanfordParserServer}. Multiplexes many
+ * mostly idle client connections on one {@link Selector}: reads the request
+ * frames of every connection as they arrive, hands the requests to the worker
+ * pool and writes the responses the workers queue up. No I/O thread ever
+ * parses, so the number of connected clients does not tie up parse workers.
+ * 
+ * @author Sanjay_Meena
+ */
+class SelectorLoop implements Runnable {
+
+	private final Selector selector;
+	private final Executor workerPool;
+	private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+	private final Queue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<ClientConnection>();
+
+	/**
+	 * @param workerPool
+	 *            pool which runs the parse requests
+	 * @throws IOException
+	 *             if the selector cannot be opened
+	 */
+	SelectorLoop(Executor workerPool) throws IOException {
+		this.selector = Selector.open();
+		this.workerPool = workerPool;
+	}
+
+	/**
+	 * Hand an accepted connection over to this loop. Called on the accept
+	 * thread.
+	 * 
+	 * @param channel
+	 *            accepted client connection
+	 */
+	void register(SocketChannel channel) {
+		newChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Ask the loop to write the queued responses of a connection. Called on
+	 * the worker threads.
+	 * 
+	 * @param connection
+	 *            connection with queued responses
+	 */
+	void requestWrite(ClientConnection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+
+				SocketChannel channel;
+				while ((channel = newChannels.poll()) != null) {
+					channel.configureBlocking(false);
+					SelectionKey key = channel.register(selector,
+							SelectionKey.OP_READ);
+					key.attach(new ClientConnection(channel, key, this,
+							workerPool));
+				}
+
+				ClientConnection connection;
+				while ((connection = pendingWrites.poll()) != null) {
+					try {
+						connection.flush();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						connection.close();
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					connection = (ClientConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable())
+							connection.onReadable();
+						if (key.isValid() && key.isWritable())
+							connection.flush();
+					} catch (RuntimeException e) {
+						// a single client must not take the loop down
+						e.printStackTrace();
+						connection.close();
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
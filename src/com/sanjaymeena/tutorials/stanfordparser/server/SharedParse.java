@@ -0,0 +1,93 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Pending parse of a sentence, shared by all the requests which submit the
+ * same sentence while it is queued or running. Every request gets a future of
+ * its own; cancelling it detaches the request, and the parse itself is only
+ * cancelled when the last request detached.
+ * 
+ * @author Sanjay_Meena
+ */
+class SharedParse implements BiConsumer<ScheduledParse, Throwable> {
+
+	private final ParseTask task;
+
+	/**
+	 * Futures of the attached requests, guarded by this.
+	 */
+	private final List<CompletableFuture<ScheduledParse>> waiters = new ArrayList<CompletableFuture<ScheduledParse>>();
+	/**
+	 * True once the parse completed or was abandoned, guarded by this.
+	 */
+	private boolean finished;
+
+	/**
+	 * @param task
+	 *            parse of the sentence, not yet scheduled
+	 */
+	SharedParse(ParseTask task) {
+		this.task = task;
+		task.whenComplete(this);
+	}
+
+	/**
+	 * Attach a request to the parse.
+	 * 
+	 * @param deadline
+	 *            deadline of the request; the parse is not dropped from the
+	 *            queue before it passed
+	 * @return future of the request, or null if the parse is already
+	 *         finished and cannot be attached to
+	 */
+	synchronized CompletableFuture<ScheduledParse> attach(Deadline deadline) {
+		if (finished)
+			return null;
+		task.extendDeadline(deadline);
+		CompletableFuture<ScheduledParse> waiter = new CompletableFuture<ScheduledParse>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean cancelled = super.cancel(mayInterruptIfRunning);
+				if (cancelled)
+					detach(this);
+				return cancelled;
+			}
+		};
+		waiters.add(waiter);
+		return waiter;
+	}
+
+	private void detach(CompletableFuture<ScheduledParse> waiter) {
+		synchronized (this) {
+			waiters.remove(waiter);
+			if (finished || !waiters.isEmpty())
+				return;
+			finished = true;
+		}
+		task.cancel(true);
+	}
+
+	/**
+	 * Hand the result of the parse to every attached request.
+	 */
+	@Override
+	public void accept(ScheduledParse result, Throwable failure) {
+		List<CompletableFuture<ScheduledParse>> done;
+		synchronized (this) {
+			finished = true;
+			done = new ArrayList<CompletableFuture<ScheduledParse>>(waiters);
+			waiters.clear();
+		}
+		for (CompletableFuture<ScheduledParse> waiter : done) {
+			if (failure != null) {
+				waiter.completeExceptionally(failure);
+			} else {
+				waiter.complete(result);
+			}
+		}
+	}
+}
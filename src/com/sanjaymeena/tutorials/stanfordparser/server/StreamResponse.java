@@ -0,0 +1,256 @@
+package com.sanjaymeena.tutorials.stanfordparser.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog.Level;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.ParserMetrics;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.TreeCodec;
+
+import edu.stanford.nlp.ling.HasWord;
+
+/**
+ * Response of a {@link ParserProtocol#STREAM} request, which sends the tree of
+ * every sentence as soon as it may. Without a reorder window all the sentences
+ * are scheduled at once and every tree is sent when its parse completes, so
+ * the short sentences, which the {@link LengthScheduler} parses first, reach
+ * the client first. With a window the trees are sent in the order of the
+ * sentences and a sentence is only scheduled once it is less than the window
+ * ahead of the next tree to be sent, which bounds the trees held back.
+ * 
+ * @author Sanjay_Meena
+ */
+class StreamResponse {
+
+	private final ClientConnection connection;
+	private final int requestId;
+	private final List<List<HasWord>> sentences;
+	private final int window;
+	private final Deadline deadline;
+	private final long arrivalNanos;
+	private final boolean binary;
+
+	/**
+	 * Parses scheduled so far, guarded by this.
+	 */
+	private final List<CompletableFuture<ScheduledParse>> parses;
+	/**
+	 * Completed parses held back until the ones before them are sent, only
+	 * used with a window, guarded by this.
+	 */
+	private final ScheduledParse[] heldBack;
+	/**
+	 * Index of the next tree to be sent with a window, guarded by this.
+	 */
+	private int next;
+	/**
+	 * Number of trees sent, guarded by this.
+	 */
+	private int sent;
+	/**
+	 * True if any tree was degraded, guarded by this.
+	 */
+	private boolean degraded;
+	/**
+	 * True while this schedules sentences, guarded by this.
+	 */
+	private boolean scheduling;
+	/**
+	 * True once the stream ended, guarded by this.
+	 */
+	private boolean finished;
+	private ScheduledFuture<?> expiry;
+
+	/**
+	 * @param connection
+	 *            connection the request was received on
+	 * @param requestId
+	 *            id of the request
+	 * @param sentences
+	 *            tokenized sentences of the document
+	 * @param window
+	 *            reorder window, 0 to send the trees in completion order
+	 * @param deadline
+	 *            deadline of the request
+	 * @param arrivalNanos
+	 *            time the request arrived
+	 */
+	StreamResponse(ClientConnection connection, int requestId,
+			List<List<HasWord>> sentences, int window, Deadline deadline,
+			long arrivalNanos) {
+		this.connection = connection;
+		this.requestId = requestId;
+		this.sentences = sentences;
+		this.window = Math.max(0, window);
+		this.deadline = deadline;
+		this.arrivalNanos = arrivalNanos;
+		this.binary = connection
+				.hasFeature(ParserProtocol.FEATURE_BINARY_TREES);
+		this.parses = new ArrayList<CompletableFuture<ScheduledParse>>(
+				sentences.size());
+		this.heldBack = this.window > 0 ? new ScheduledParse[sentences.size()]
+				: null;
+	}
+
+	/**
+	 * @param payload
+	 *            body of a {@link ParserProtocol#STREAM} request
+	 * @return reorder window of the request
+	 */
+	static int window(byte[] payload) {
+		return ByteBuffer.wrap(payload).getInt();
+	}
+
+	/**
+	 * @param payload
+	 *            body of a {@link ParserProtocol#STREAM} request
+	 * @return document of the request
+	 */
+	static String document(byte[] payload) {
+		return new String(payload, 4, payload.length - 4,
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Schedule the first sentences; the rest is driven by the lane threads
+	 * which complete the parses.
+	 */
+	synchronized void start() {
+		if (deadline.isSet()) {
+			expiry = EnglishStanfordParserServer.deadlineTimer.schedule(
+					new Runnable() {
+						@Override
+						public void run() {
+							timeout();
+						}
+					}, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		}
+		schedule();
+		if (sentences.isEmpty())
+			end();
+	}
+
+	/**
+	 * Schedule the sentences the window allows. A parse which completes at
+	 * once, e.g. from the cache, is handled before the next sentence is
+	 * scheduled but does not schedule by itself.
+	 */
+	private void schedule() {
+		if (scheduling)
+			return;
+		scheduling = true;
+		try {
+			while (!finished && parses.size() < sentences.size()
+					&& (window == 0 || parses.size() < next + window)) {
+				final int index = parses.size();
+				CompletableFuture<ScheduledParse> parse = EnglishStanfordParserServer.scheduler
+						.submit(sentences.get(index), deadline);
+				parses.add(parse);
+				parse.whenComplete(new BiConsumer<ScheduledParse, Throwable>() {
+					@Override
+					public void accept(ScheduledParse result, Throwable failure) {
+						completed(index, result, failure);
+					}
+				});
+			}
+		} finally {
+			scheduling = false;
+		}
+	}
+
+	private synchronized void completed(int index, ScheduledParse result,
+			Throwable failure) {
+		if (finished)
+			return;
+		if (failure != null) {
+			Throwable cause = failure instanceof CompletionException ? failure
+					.getCause() : failure;
+			if (cause instanceof CancellationException
+					|| cause instanceof TimeoutException) {
+				timeout();
+				return;
+			}
+			cause.printStackTrace();
+			EnglishStanfordParserServer.metrics.increment("failures");
+			result = new ScheduledParse(null, "");
+		}
+
+		if (window == 0) {
+			send(index, result);
+		} else {
+			heldBack[index] = result;
+			while (next < heldBack.length && heldBack[next] != null) {
+				send(next, heldBack[next]);
+				heldBack[next++] = null;
+			}
+			schedule();
+		}
+		if (sent == sentences.size())
+			end();
+	}
+
+	private void send(int index, ScheduledParse result) {
+		byte[] tree;
+		if (result.tree == null) {
+			tree = new byte[0];
+		} else if (binary) {
+			tree = TreeCodec.encode(result.tree);
+		} else {
+			tree = result.tree.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		connection.send(new Frame(binary ? ParserProtocol.STREAM_BINARY_TREE
+				: ParserProtocol.STREAM_TREE, requestId, ParserProtocol
+				.encodeStreamTree(index, result.degradation, tree)));
+		degraded |= !result.degradation.isEmpty();
+		sent++;
+		if (sent == 1)
+			EnglishStanfordParserServer.metrics.recordSince(
+					ParserMetrics.FIRST_TREE, arrivalNanos);
+	}
+
+	private void end() {
+		finished = true;
+		if (expiry != null)
+			expiry.cancel(false);
+		if (degraded)
+			EnglishStanfordParserServer.metrics.increment("degraded_requests");
+		connection.send(new Frame(ParserProtocol.STREAM_END, requestId,
+				ByteBuffer.allocate(4).putInt(sent).array()));
+		EnglishStanfordParserServer.metrics.recordSince(ParserMetrics.REQUEST,
+				arrivalNanos);
+	}
+
+	/**
+	 * End the stream with a {@link ParserProtocol#TIMEOUT} frame and abandon
+	 * the parses still running.
+	 */
+	private synchronized void timeout() {
+		if (finished)
+			return;
+		finished = true;
+		if (expiry != null)
+			expiry.cancel(false);
+		EnglishStanfordParserServer.metrics.increment("timeouts");
+		EnglishStanfordParserServer.log.log(Level.WARN, "Deadline of stream "
+				+ requestId + " passed after " + sent + " of "
+				+ sentences.size() + " trees");
+		connection.send(Frame.text(ParserProtocol.TIMEOUT, requestId,
+				"Deadline exceeded"));
+		EnglishStanfordParserServer.metrics.recordSince(ParserMetrics.REQUEST,
+				arrivalNanos);
+		for (CompletableFuture<ScheduledParse> parse : parses) {
+			parse.cancel(true);
+		}
+	}
+}
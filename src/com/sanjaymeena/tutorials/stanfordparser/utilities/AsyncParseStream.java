@@ -0,0 +1,127 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.utilities.ParserUtilities.ParseResult;
+
+/**
+ * Stream of sentences parsed with {@link ParserUtilities#parseAsync(String)},
+ * with a window of at most maxInFlight sentences in flight. The results are
+ * handed to the consumer in the order of the sentences; every time the head of
+ * the window is handed over, the window takes the next sentence.
+ * <p>
+ * The window is advanced by one thread at a time, the drainer: a parse which
+ * completes while another thread is draining only asks it to look again.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserUtilities#parseAsync(Iterator, int, Consumer)
+ */
+class AsyncParseStream implements BiConsumer<ParseResult, Throwable> {
+
+	private final ParserUtilities parser;
+	private final Iterator<String> sentences;
+	private final int maxInFlight;
+	private final Consumer<ParseResult> consumer;
+	private final CompletableFuture<Long> done = new CompletableFuture<Long>();
+
+	/**
+	 * Parses in flight in the order of their sentences, used by the drainer
+	 * only.
+	 */
+	private final Queue<CompletableFuture<ParseResult>> window = new ArrayDeque<CompletableFuture<ParseResult>>();
+	/**
+	 * Results handed over, used by the drainer only.
+	 */
+	private long delivered;
+
+	/**
+	 * True while a thread drains, guarded by this.
+	 */
+	private boolean draining;
+	/**
+	 * True if a parse completed while the drainer was busy, guarded by this.
+	 */
+	private boolean again;
+
+	AsyncParseStream(ParserUtilities parser, Iterator<String> sentences,
+			int maxInFlight, Consumer<ParseResult> consumer) {
+		this.parser = parser;
+		this.sentences = sentences;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Fill the window with the first sentences.
+	 * 
+	 * @return future of the number of sentences parsed
+	 */
+	CompletableFuture<Long> start() {
+		drain();
+		return done;
+	}
+
+	/**
+	 * A parse of the window completed.
+	 */
+	@Override
+	public void accept(ParseResult result, Throwable failure) {
+		drain();
+	}
+
+	private void drain() {
+		synchronized (this) {
+			if (draining) {
+				again = true;
+				return;
+			}
+			draining = true;
+			again = false;
+		}
+		do {
+			if (done.isDone())
+				return;
+			try {
+				CompletableFuture<ParseResult> head;
+				while ((head = window.peek()) != null && head.isDone()) {
+					window.poll();
+					consumer.accept(head.join());
+					delivered++;
+				}
+				while (window.size() < maxInFlight && sentences.hasNext()) {
+					CompletableFuture<ParseResult> parse = parser
+							.parseAsync(sentences.next());
+					window.add(parse);
+					// runs at once if the parse is already complete, which
+					// only asks this drainer to look again
+					parse.whenComplete(this);
+				}
+			} catch (RuntimeException e) {
+				done.completeExceptionally(e);
+				return;
+			}
+			if (window.isEmpty()) {
+				done.complete(delivered);
+				return;
+			}
+		} while (lookAgain());
+	}
+
+	/**
+	 * @return true if a parse completed while draining, otherwise the drainer
+	 *         quits
+	 */
+	private synchronized boolean lookAgain() {
+		if (again) {
+			again = false;
+			return true;
+		}
+		draining = false;
+		return false;
+	}
+}
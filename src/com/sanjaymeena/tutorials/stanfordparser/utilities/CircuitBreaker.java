@@ -0,0 +1,156 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+/**
+ * Circuit breaker of a parser server, shared by all the threads sending
+ * requests to it.
+ * <p>
+ * While the circuit is closed requests go to the server. After a number of
+ * failures in a row the circuit opens and no request goes to the server any
+ * more, so they do not wait for a connection which is not going to be made.
+ * When the backoff passed the circuit is half open for a single probe: if the
+ * probe succeeds the circuit closes, otherwise it opens again with twice the
+ * backoff, up to a maximum.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserCluster
+ */
+class CircuitBreaker {
+
+	/**
+	 * State of the circuit.
+	 */
+	enum State {
+		/**
+		 * requests go to the server
+		 */
+		CLOSED,
+		/**
+		 * requests do not go to the server until the backoff passed
+		 */
+		OPEN,
+		/**
+		 * the server is probed, requests do not go to it yet
+		 */
+		HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+
+	/**
+	 * Read without locking on the request path, written under the lock.
+	 */
+	private volatile State state = State.CLOSED;
+	/**
+	 * Failures in a row while closed, guarded by this.
+	 */
+	private int failures;
+	/**
+	 * Backoff of the current or the next opening, guarded by this.
+	 */
+	private long backoffMillis;
+
+	/**
+	 * @param failureThreshold
+	 *            failures in a row after which the circuit opens
+	 * @param backoffMillis
+	 *            time the circuit stays open the first time
+	 * @param maxBackoffMillis
+	 *            longest time the circuit stays open
+	 */
+	CircuitBreaker(int failureThreshold, long backoffMillis,
+			long maxBackoffMillis) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.initialBackoffMillis = Math.max(1, backoffMillis);
+		this.maxBackoffMillis = Math.max(this.initialBackoffMillis,
+				maxBackoffMillis);
+		this.backoffMillis = this.initialBackoffMillis;
+	}
+
+	/**
+	 * @return true if requests may go to the server
+	 */
+	boolean allowsRequests() {
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * @return current state
+	 */
+	State getState() {
+		return state;
+	}
+
+	/**
+	 * Record a request the server answered.
+	 */
+	synchronized void succeeded() {
+		if (state == State.CLOSED)
+			failures = 0;
+	}
+
+	/**
+	 * Record a request or probe the server did not answer.
+	 * 
+	 * @return true if the circuit opened because of it
+	 */
+	synchronized boolean failed() {
+		switch (state) {
+		case CLOSED:
+			if (++failures < failureThreshold)
+				return false;
+			return open();
+		case HALF_OPEN:
+			// the server is still down, wait longer for the next probe
+			backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+			return open();
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Open a closed circuit at once, e.g. when the health check found the
+	 * server down.
+	 * 
+	 * @return true if the circuit opened
+	 */
+	synchronized boolean trip() {
+		return state == State.CLOSED && open();
+	}
+
+	private boolean open() {
+		state = State.OPEN;
+		failures = 0;
+		return true;
+	}
+
+	/**
+	 * Let a probe through once the backoff passed.
+	 * 
+	 * @return true if the circuit was open and is half open now
+	 */
+	synchronized boolean halfOpen() {
+		if (state != State.OPEN)
+			return false;
+		state = State.HALF_OPEN;
+		return true;
+	}
+
+	/**
+	 * Close the circuit after a successful probe.
+	 */
+	synchronized void reset() {
+		state = State.CLOSED;
+		failures = 0;
+		backoffMillis = initialBackoffMillis;
+	}
+
+	/**
+	 * @return time the circuit stays open before the next probe
+	 */
+	synchronized long getBackoffMillis() {
+		return backoffMillis;
+	}
+}
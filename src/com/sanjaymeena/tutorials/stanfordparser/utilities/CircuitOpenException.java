@@ -0,0 +1,19 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown without trying any server when the circuits of all the parser
+ * servers are open.
+ * 
+ * @author Sanjay_Meena
+ * @see CircuitBreaker
+ */
+class CircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	CircuitOpenException() {
+		super("The circuits of all the parser servers are open.");
+	}
+}
@@ -0,0 +1,455 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngines;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.TreeCodec;
+
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * Parse cache on disk which survives restarts and is shared by all the
+ * processes using the same cache directory, e.g. the parser server and the
+ * local parsers of its clients.
+ * <p>
+ * The trees of a parser configuration live in a directory of their own, named
+ * by a hash of the {@link ParserEngines#fingerprint(Map, boolean)
+ * fingerprint} of the models and options, so a new model never sees the trees
+ * of the old one. The directory holds memory-mapped segment files of
+ * {@link #SEGMENT_BYTES} bytes, to which the records are appended:
+ * 
+ * <pre>
+ * segment: int magic, int end, int full, int unused, records
+ * record:  int length of the record, long hash, int keyLength, UTF-8 key, {@link TreeCodec} tree
+ * </pre>
+ * 
+ * The key is the whitespace normalized sentence. Every process keeps an index
+ * from the hash of the key to the record in memory; it is built by scanning
+ * the segments when the cache is opened and caught up with the records of the
+ * other processes on a miss. Appends are serialized between processes by a
+ * lock on the file "lock" and published by advancing the end of the segment.
+ * Once the segments reach the size limit no more trees are added.
+ * 
+ * @author Sanjay_Meena
+ */
+public class DiskParseCache {
+
+	/**
+	 * Size of a segment file.
+	 */
+	static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+	private static final int MAGIC = 0x50415253;
+	private static final int HEADER_BYTES = 16;
+	private static final int END_OFFSET = 4;
+	private static final int FULL_OFFSET = 8;
+	private static final int RECORD_HEADER_BYTES = 16;
+
+	private final File directory;
+	private final int maxSegments;
+	private final FileChannel lockChannel;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private final TreeFactory treeFactory = new LabeledScoredTreeFactory();
+
+	/**
+	 * Segment and offset up to which the records are in the index.
+	 */
+	private int scannedSegment;
+	private int scannedEnd = HEADER_BYTES;
+
+	private long[] hashes = new long[1024];
+	private long[] locations = new long[1024];
+	private int size;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Open the cache of a parser configuration, creating it if needed.
+	 * 
+	 * @param cacheDirectory
+	 *            directory of the caches of all configurations
+	 * @param fingerprint
+	 *            fingerprint of the models and options the trees are parsed
+	 *            with
+	 * @param maxBytes
+	 *            largest size of the segment files on disk
+	 * @throws IOException
+	 */
+	public DiskParseCache(String cacheDirectory, String fingerprint,
+			long maxBytes) throws IOException {
+		this.directory = new File(cacheDirectory,
+				Long.toHexString(hash(fingerprint)));
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		this.maxSegments = (int) Math.max(1, maxBytes / SEGMENT_BYTES);
+
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory,
+				"lock"), "rw");
+		this.lockChannel = lockFile.getChannel();
+		FileLock lock = lockChannel.lock();
+		try {
+			synchronized (this) {
+				catchUp(true);
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Open the cache configured by the "diskCache" (directory, empty to
+	 * disable the cache) and "diskCacheSize" (megabytes) preferences.
+	 * 
+	 * @param preferences
+	 *            preferences of english_stanford_parser.xml
+	 * @param tagged
+	 *            true if the sentences are tagged with the "postagger" model
+	 *            before they are parsed
+	 * @return the cache, or null if it is disabled or cannot be opened
+	 */
+	public static DiskParseCache open(Map<String, String> preferences,
+			boolean tagged) {
+		String directory = preferences.get("diskCache");
+		if (directory == null || directory.trim().isEmpty())
+			return null;
+		String size = preferences.get("diskCacheSize");
+		long maxBytes = (size == null ? 1024 : Integer.parseInt(size.trim()))
+				* 1024L * 1024L;
+		try {
+			DiskParseCache cache = new DiskParseCache(directory.trim(),
+					ParserEngines.fingerprint(preferences, tagged), maxBytes);
+			System.err.println("diskCache = " + cache.directory + " ("
+					+ cache.size() + " trees)");
+			return cache;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Look up the tree of a sentence.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return a new copy of the cached tree, or null on a miss
+	 */
+	public Tree get(String sentence) {
+		byte[] key = ParseCache.normalize(sentence).getBytes(
+				StandardCharsets.UTF_8);
+		long hash = hash(key);
+		byte[] tree;
+		synchronized (this) {
+			tree = find(hash, key);
+			if (tree == null) {
+				// the tree may have been added by another process
+				catchUp(false);
+				tree = find(hash, key);
+			}
+			if (tree == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		try {
+			return TreeCodec.decode(tree, treeFactory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Add the tree of a sentence, unless it is cached already or the cache is
+	 * full.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @param tree
+	 *            parse tree of the sentence
+	 */
+	public void put(String sentence, Tree tree) {
+		byte[] key = ParseCache.normalize(sentence).getBytes(
+				StandardCharsets.UTF_8);
+		byte[] encoded = TreeCodec.encode(tree);
+		long hash = hash(key);
+		int length = RECORD_HEADER_BYTES + key.length + encoded.length;
+		if (HEADER_BYTES + length > SEGMENT_BYTES)
+			return;
+
+		synchronized (this) {
+			// the lane threads are interrupted when a parse is abandoned, and
+			// an interrupted lock() would close the lock channel for good
+			boolean interrupted = Thread.interrupted();
+			FileLock lock = null;
+			try {
+				lock = lockChannel.lock();
+				catchUp(true);
+				if (indexLocation(hash) >= 0)
+					return;
+
+				int segment = segments.size() - 1;
+				MappedByteBuffer buffer = segments.get(segment);
+				int end = buffer.getInt(END_OFFSET);
+				if (end + length > SEGMENT_BYTES) {
+					if (segments.size() >= maxSegments)
+						return;
+					buffer.putInt(FULL_OFFSET, 1);
+					segment++;
+					buffer = openSegment(segment, true);
+					segments.add(buffer);
+					scannedSegment = segment;
+					scannedEnd = HEADER_BYTES;
+					end = HEADER_BYTES;
+				}
+
+				buffer.putInt(end, length);
+				buffer.putLong(end + 4, hash);
+				buffer.putInt(end + 12, key.length);
+				for (int i = 0; i < key.length; i++)
+					buffer.put(end + RECORD_HEADER_BYTES + i, key[i]);
+				int treeStart = end + RECORD_HEADER_BYTES + key.length;
+				for (int i = 0; i < encoded.length; i++)
+					buffer.put(treeStart + i, encoded[i]);
+				// publish the record to the other processes
+				buffer.putInt(END_OFFSET, end + length);
+
+				index(hash, location(segment, end));
+				scannedEnd = end + length;
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				if (lock != null) {
+					try {
+						lock.release();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return number of lookups which found a tree
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups which found no tree
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of trees in the index of this process
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DiskParseCache[directory=" + directory + ", size=" + size
+				+ ", segments=" + segments.size() + ", hits=" + hits
+				+ ", misses=" + misses + "]";
+	}
+
+	/**
+	 * Index the records appended since the last scan, by this or another
+	 * process.
+	 * 
+	 * @param locked
+	 *            true if the lock file is held, so that new segments may be
+	 *            initialized
+	 */
+	private void catchUp(boolean locked) {
+		try {
+			if (segments.isEmpty())
+				segments.add(openSegment(0, locked));
+			while (true) {
+				MappedByteBuffer buffer = segments.get(scannedSegment);
+				int end = Math.min(buffer.getInt(END_OFFSET), SEGMENT_BYTES);
+				while (scannedEnd + RECORD_HEADER_BYTES <= end) {
+					int length = buffer.getInt(scannedEnd);
+					if (length < RECORD_HEADER_BYTES
+							|| scannedEnd + length > end) {
+						// torn record of a crashed writer, skip the rest of
+						// the segment
+						scannedEnd = end;
+						break;
+					}
+					index(buffer.getLong(scannedEnd + 4),
+							location(scannedSegment, scannedEnd));
+					scannedEnd += length;
+				}
+				if (buffer.getInt(FULL_OFFSET) == 0
+						|| scannedSegment + 1 >= maxSegments)
+					return;
+				if (scannedSegment + 1 == segments.size()) {
+					if (!segmentFile(scannedSegment + 1).exists())
+						return;
+					MappedByteBuffer next = openSegment(scannedSegment + 1,
+							locked);
+					if (next.getInt(0) != MAGIC)
+						// still being created by another process
+						return;
+					segments.add(next);
+				}
+				scannedSegment++;
+				scannedEnd = HEADER_BYTES;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private File segmentFile(int segment) {
+		return new File(directory, String.format("segment-%05d", segment));
+	}
+
+	/**
+	 * Map a segment, creating the file if it does not exist.
+	 * 
+	 * @param initialize
+	 *            true to write an empty header into a new segment, which is
+	 *            only safe while the lock file is held
+	 */
+	private MappedByteBuffer openSegment(int segment, boolean initialize)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+		try {
+			if (file.length() < SEGMENT_BYTES)
+				file.setLength(SEGMENT_BYTES);
+			MappedByteBuffer buffer = file.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+			if (initialize && buffer.getInt(0) != MAGIC) {
+				buffer.putInt(END_OFFSET, HEADER_BYTES);
+				buffer.putInt(0, MAGIC);
+			}
+			return buffer;
+		} finally {
+			// the mapping stays valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * @return encoded tree of the record of the key, null if it is not
+	 *         indexed
+	 */
+	private byte[] find(long hash, byte[] key) {
+		int slot = indexLocation(hash);
+		if (slot < 0)
+			return null;
+		long location = locations[slot];
+		MappedByteBuffer buffer = segments.get((int) (location >>> 32));
+		int offset = (int) location;
+
+		int length = buffer.getInt(offset);
+		int keyLength = buffer.getInt(offset + 12);
+		if (keyLength != key.length)
+			return null;
+		for (int i = 0; i < keyLength; i++) {
+			if (buffer.get(offset + RECORD_HEADER_BYTES + i) != key[i])
+				return null;
+		}
+		int treeStart = offset + RECORD_HEADER_BYTES + keyLength;
+		byte[] tree = new byte[offset + length - treeStart];
+		for (int i = 0; i < tree.length; i++)
+			tree[i] = buffer.get(treeStart + i);
+		return tree;
+	}
+
+	private static long location(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	/**
+	 * @return slot of the hash in the index, -1 if it is not indexed
+	 */
+	private int indexLocation(long hash) {
+		int mask = hashes.length - 1;
+		for (int slot = (int) mix(hash) & mask;; slot = (slot + 1) & mask) {
+			if (hashes[slot] == 0)
+				return -1;
+			if (hashes[slot] == hash)
+				return slot;
+		}
+	}
+
+	/**
+	 * Index a record; the first record of a hash wins.
+	 */
+	private void index(long hash, long location) {
+		if (2 * (size + 1) > hashes.length)
+			grow();
+		int mask = hashes.length - 1;
+		for (int slot = (int) mix(hash) & mask;; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash)
+				return;
+			if (hashes[slot] == 0) {
+				hashes[slot] = hash;
+				locations[slot] = location;
+				size++;
+				return;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] oldHashes = hashes;
+		long[] oldLocations = locations;
+		hashes = new long[oldHashes.length * 2];
+		locations = new long[oldLocations.length * 2];
+		size = 0;
+		for (int i = 0; i < oldHashes.length; i++) {
+			if (oldHashes[i] != 0)
+				index(oldHashes[i], oldLocations[i]);
+		}
+	}
+
+	private static long hash(String s) {
+		return hash(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 64 bit FNV-1a hash, never 0, which marks the empty slots of the index.
+	 */
+	private static long hash(byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Spread the bits of a hash over the slots of the index.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,82 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.StringReader;
+import java.util.List;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngine;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.process.TokenizerFactory;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * In-process parser used by {@link ParserUtilities} when no parser server is
+ * available. The model is loaded once and shared; the {@link ParserEngine}
+ * gives every thread its own parser state, so parses of different threads do
+ * not wait for each other. Trees are looked up in the {@link DiskParseCache},
+ * if one is configured, before they are parsed.
+ * 
+ * @author Sanjay_Meena
+ */
+class LocalParser {
+
+	private final ParserEngine engine;
+	private final MaxentTagger tagger;
+	private final TokenizerFactory<? extends HasWord> tokenizerFactory;
+	private final DiskParseCache diskCache;
+
+	/**
+	 * @param engine
+	 *            loaded parser engine
+	 * @param tagger
+	 *            part of speech tagger, only needed when the engine
+	 *            {@link ParserEngine#requiresTags() requires tags}
+	 * @param diskCache
+	 *            cache of trees on disk, null for none
+	 */
+	LocalParser(ParserEngine engine, MaxentTagger tagger,
+			DiskParseCache diskCache) {
+		this.engine = engine;
+		this.tagger = tagger;
+		this.diskCache = diskCache;
+		this.tokenizerFactory = engine.treebankLanguagePack()
+				.getTokenizerFactory();
+	}
+
+	/**
+	 * Tokenize, tag if needed, and parse a sentence.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return best parse, or an (X ...) tree if the sentence could not be
+	 *         parsed
+	 */
+	Tree parse(String sentence) {
+		List<? extends HasWord> words = tokenizerFactory.getTokenizer(
+				new StringReader(sentence)).tokenize();
+		// the disk cache is keyed by the tokens, like the one of the server
+		String key = null;
+		if (diskCache != null) {
+			key = Sentence.listToString(words);
+			Tree cached = diskCache.get(key);
+			if (cached != null)
+				return cached;
+		}
+		if (engine.requiresTags()) {
+			words = tagger.tagSentence(words);
+		}
+		Tree tree = engine.parse(words);
+		if (diskCache != null && tree != null)
+			diskCache.put(key, tree);
+		return tree;
+	}
+
+	/**
+	 * @return the shared parser engine
+	 */
+	ParserEngine getEngine() {
+		return engine;
+	}
+}
@@ -0,0 +1,172 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Bounded least recently used cache of parse trees, keyed by the whitespace
+ * normalized sentence and the parser options it was parsed with. The cache is
+ * bounded both by the number of entries and by an estimate of the memory held
+ * by the cached trees. Used in front of the parser of the socket server and of
+ * the local parser in {@link ParserUtilities}.
+ * 
+ * @author Sanjay_Meena
+ */
+public class ParseCache {
+
+	/**
+	 * Rough number of bytes held by one tree node and its label.
+	 */
+	private static final int BYTES_PER_NODE = 120;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final String options;
+	private final LinkedHashMap<String, Entry> entries;
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxEntries
+	 *            largest number of cached trees
+	 * @param maxBytes
+	 *            largest estimated memory held by the cached trees
+	 * @param options
+	 *            parser options which are part of every key, e.g. the
+	 *            maxLength
+	 */
+	public ParseCache(int maxEntries, long maxBytes, String options) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.options = options;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Collapse all runs of whitespace of the sentence into one space.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return normalized sentence
+	 */
+	public static String normalize(String sentence) {
+		StringBuilder sb = new StringBuilder(sentence.length());
+		boolean space = false;
+		for (int i = 0; i < sentence.length(); i++) {
+			char c = sentence.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space)
+					sb.append(' ');
+				sb.append(c);
+				space = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Look up the tree of a sentence. The cached tree is shared, callers which
+	 * hand it out must copy it.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return cached tree, or null on a miss
+	 */
+	public synchronized Tree get(String sentence) {
+		Entry entry = entries.get(key(sentence));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.tree;
+	}
+
+	/**
+	 * Cache the tree of a sentence, evicting the least recently used trees
+	 * when the cache is full.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @param tree
+	 *            parse tree of the sentence
+	 */
+	public synchronized void put(String sentence, Tree tree) {
+		String key = key(sentence);
+		Entry entry = new Entry(tree, 2L * key.length() + BYTES_PER_NODE
+				* tree.size());
+		if (entry.bytes > maxBytes)
+			return;
+
+		Entry previous = entries.put(key, entry);
+		if (previous != null)
+			bytes -= previous.bytes;
+		bytes += entry.bytes;
+
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet()
+				.iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes)
+				&& eldest.hasNext()) {
+			bytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * @return number of lookups which found a tree
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups which found no tree
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of trees evicted to keep the cache in its bounds
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of cached trees
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ParseCache[size=" + entries.size() + ", bytes=" + bytes
+				+ ", hits=" + hits + ", misses=" + misses + ", evictions="
+				+ evictions + "]";
+	}
+
+	private String key(String sentence) {
+		return options + '\u0000' + normalize(sentence);
+	}
+
+	private static class Entry {
+		final Tree tree;
+		final long bytes;
+
+		Entry(Tree tree, long bytes) {
+			this.tree = tree;
+			this.bytes = bytes;
+		}
+	}
+}
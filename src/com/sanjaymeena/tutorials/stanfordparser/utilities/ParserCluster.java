@@ -0,0 +1,689 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+
+/**
+ * The parser servers a client sends its requests to. Every request goes to
+ * the less loaded of two randomly chosen servers with a closed circuit,
+ * measured by the requests the client has outstanding on them (power of two
+ * choices). A server which is busy is skipped for the request; the circuit of
+ * one which fails several requests in a row opens, see {@link CircuitBreaker}.
+ * A health check connects to the servers with a closed circuit periodically
+ * and opens the circuits of the ones which do not answer. A server with an
+ * open circuit is probed in the background after its backoff, so no request
+ * ever waits for a server which is down.
+ * <p>
+ * A server which answers {@link ParserProtocol#BUSY} with a retry-after hint
+ * gets no requests until the hint passed. When every server is busy, a request
+ * waits for the earliest of them, plus a random part of up to half the wait
+ * so that the rejected clients do not all return at once, and tries again, a
+ * limited number of times and never beyond its timeout.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserConnectionPool
+ */
+class ParserCluster {
+
+	private final List<Node> nodes = new ArrayList<Node>();
+	private final int features;
+	private final int busyRetries;
+	private final long busyRetryDelayMillis;
+	/**
+	 * Runs the health checks, the probes, the timeouts of asynchronous
+	 * requests and the connects they need.
+	 */
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * @param servers
+	 *            comma separated host:port list of the servers
+	 * @param connections
+	 *            number of connections to every server
+	 * @param features
+	 *            protocol features to negotiate on every connection
+	 * @param healthCheckMillis
+	 *            interval of the health check
+	 * @param circuitFailures
+	 *            failed requests in a row after which the circuit of a server
+	 *            opens
+	 * @param circuitBackoffMillis
+	 *            time until the first probe of a server with an open circuit
+	 * @param circuitMaxBackoffMillis
+	 *            longest time between probes
+	 * @param busyRetries
+	 *            number of times a request which all the servers rejected as
+	 *            busy is tried again
+	 * @param busyRetryDelayMillis
+	 *            shortest wait before a retry, for servers which give no hint
+	 */
+	ParserCluster(String servers, int connections, int features,
+			long healthCheckMillis, int circuitFailures,
+			long circuitBackoffMillis, long circuitMaxBackoffMillis,
+			int busyRetries, long busyRetryDelayMillis) {
+		this.features = features;
+		this.busyRetries = busyRetries;
+		this.busyRetryDelayMillis = Math.max(1, busyRetryDelayMillis);
+		for (String server : servers.split(",")) {
+			server = server.trim();
+			if (server.isEmpty())
+				continue;
+			int colon = server.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Parser server " + server
+						+ " is not host:port");
+			nodes.add(new Node(server.substring(0, colon),
+					Integer.parseInt(server.substring(colon + 1)), connections,
+					features, new CircuitBreaker(circuitFailures,
+							circuitBackoffMillis, circuitMaxBackoffMillis)));
+		}
+
+		scheduler = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "parser-cluster");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// timeouts of the requests which were answered in time are dropped
+		scheduler.setRemoveOnCancelPolicy(true);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkHealth();
+			}
+		}, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Response of a server with the degradations it reported for the request.
+	 */
+	static class Reply {
+		final Frame frame;
+		final List<String> degradations;
+
+		Reply(Frame frame, List<String> degradations) {
+			this.frame = frame;
+			this.degradations = degradations;
+		}
+	}
+
+	/**
+	 * Send a request to the available servers until one of them takes it.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time to wait for the response over all the servers tried, 0
+	 *            to wait as long as it takes
+	 * @return the response, which is neither {@link ParserProtocol#BUSY} nor
+	 *         {@link ParserProtocol#TIMEOUT}
+	 * @throws CircuitOpenException
+	 *             if the circuits of all the servers are open
+	 * @throws IOException
+	 *             if no server answered or all of them stayed busy
+	 * @throws TimeoutException
+	 *             if the timeout passed
+	 * @throws InterruptedException
+	 */
+	Reply request(byte type, byte[] payload, long timeoutMillis)
+			throws IOException, TimeoutException, InterruptedException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (int retry = 0;; retry++) {
+			Reply reply = requestOnce(type, payload, timeoutMillis, deadline);
+			if (reply != null)
+				return reply;
+			long wait = busyWait(retry, timeoutMillis, deadline);
+			if (wait < 0)
+				throw new IOException("Parser servers are busy.");
+			Thread.sleep(wait);
+		}
+	}
+
+	/**
+	 * Try every available server once.
+	 * 
+	 * @return the response, or null if the servers were busy
+	 */
+	private Reply requestOnce(byte type, byte[] payload, long timeoutMillis,
+			long deadline) throws IOException, TimeoutException,
+			InterruptedException {
+		List<Node> tried = new ArrayList<Node>(2);
+		boolean busy = false;
+		Node node = choose(tried);
+		if (node == null) {
+			if (!isAvailable())
+				throw new CircuitOpenException();
+			// every server asked to be left alone for a while
+			return null;
+		}
+		for (; node != null; node = choose(tried)) {
+			tried.add(node);
+			long remaining = timeoutMillis;
+			if (timeoutMillis > 0) {
+				remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+						- System.nanoTime());
+				if (remaining <= 0)
+					throw new TimeoutException("Deadline exceeded");
+			}
+
+			node.outstanding.incrementAndGet();
+			try {
+				ParserConnection connection = node.pool.acquire();
+				Frame frame = connection.request(type, payload, remaining);
+				List<String> degradations = connection.takeDegradations(frame);
+				node.circuit.succeeded();
+				if (frame.getType() == ParserProtocol.TIMEOUT)
+					throw new TimeoutException(frame.getText());
+				if (frame.getType() != ParserProtocol.BUSY)
+					return new Reply(frame, degradations);
+				node.backOff(ParserProtocol.retryAfterMillis(frame));
+				busy = true;
+			} catch (IOException e) {
+				failed(node);
+			} catch (ExecutionException e) {
+				// the connection broke
+				failed(node);
+			} finally {
+				node.outstanding.decrementAndGet();
+			}
+		}
+		if (!busy)
+			throw new IOException("No parser server available.");
+		return null;
+	}
+
+	/**
+	 * Time to wait before a request which the servers rejected as busy is
+	 * tried again: until the earliest server takes requests again, but at
+	 * least the retry delay, plus up to half of that at random.
+	 * 
+	 * @param retry
+	 *            number of retries so far
+	 * @return the wait, or -1 if the request must not be retried because it
+	 *         ran out of retries or the wait would outlast its timeout
+	 */
+	private long busyWait(int retry, long timeoutMillis, long deadline) {
+		if (retry >= busyRetries)
+			return -1;
+		long now = System.nanoTime();
+		long earliest = Long.MAX_VALUE;
+		for (Node node : nodes) {
+			if (node.circuit.allowsRequests())
+				earliest = Math.min(earliest, Math.max(0, node.busyUntil - now));
+		}
+		long wait = Math.max(busyRetryDelayMillis,
+				TimeUnit.NANOSECONDS.toMillis(earliest));
+		wait += ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+		if (timeoutMillis > 0
+				&& TimeUnit.MILLISECONDS.toNanos(wait) >= deadline - now)
+			return -1;
+		return wait;
+	}
+
+	/**
+	 * Send a request to the available servers until one of them takes it,
+	 * without blocking the calling thread. The request moves on to the next
+	 * server from the thread which received the response of the previous one.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time to wait for the response over all the servers tried, 0
+	 *            to wait as long as it takes
+	 * @return future completed with the response, which is neither
+	 *         {@link ParserProtocol#BUSY} nor {@link ParserProtocol#TIMEOUT},
+	 *         or exceptionally with the exceptions of
+	 *         {@link #request(byte, byte[], long)}
+	 */
+	CompletableFuture<Reply> requestAsync(byte type, byte[] payload,
+			long timeoutMillis) {
+		return requestAsync(type, payload, timeoutMillis, null);
+	}
+
+	/**
+	 * Send a {@link ParserProtocol#STREAM} request to the available servers
+	 * until one of them takes it, without blocking the calling thread. Once a
+	 * server sent the first tree the request stays with it: if the server
+	 * fails after that, the request fails.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time to wait for the end of the response over all the
+	 *            servers tried, 0 to wait as long as it takes
+	 * @param streamed
+	 *            receives the tree frames of the response as they arrive,
+	 *            null for a plain request
+	 * @return future completed with the frame which ends the response
+	 */
+	CompletableFuture<Reply> requestAsync(byte type, byte[] payload,
+			long timeoutMillis, Consumer<Frame> streamed) {
+		final CompletableFuture<Reply> reply = new CompletableFuture<Reply>();
+		if (!isAvailable()) {
+			reply.completeExceptionally(new CircuitOpenException());
+			return reply;
+		}
+		if (timeoutMillis > 0) {
+			try {
+				final ScheduledFuture<?> timeout = scheduler.schedule(
+						new Runnable() {
+							@Override
+							public void run() {
+								reply.completeExceptionally(new TimeoutException(
+										"Deadline exceeded"));
+							}
+						}, timeoutMillis, TimeUnit.MILLISECONDS);
+				reply.whenComplete(new BiConsumer<Reply, Throwable>() {
+					@Override
+					public void accept(Reply result, Throwable failure) {
+						timeout.cancel(false);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				reply.completeExceptionally(new IOException(
+						"Parser cluster is closed."));
+				return reply;
+			}
+		}
+		new AsyncRequest(type, payload, timeoutMillis, streamed, reply).next();
+		return reply;
+	}
+
+	/**
+	 * @return true if the circuit of any server is closed
+	 */
+	boolean isAvailable() {
+		for (Node node : nodes) {
+			if (node.circuit.allowsRequests())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Power of two choices among the servers with a closed circuit which were
+	 * not tried yet and did not ask to be left alone.
+	 * 
+	 * @return the server, null if there is none
+	 */
+	private Node choose(List<Node> tried) {
+		List<Node> candidates = new ArrayList<Node>(nodes.size());
+		long now = System.nanoTime();
+		for (Node node : nodes) {
+			if (node.circuit.allowsRequests() && !tried.contains(node)
+					&& now - node.busyUntil >= 0)
+				candidates.add(node);
+		}
+		if (candidates.size() <= 1)
+			return candidates.isEmpty() ? null : candidates.get(0);
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(candidates.size());
+		int second = random.nextInt(candidates.size() - 1);
+		if (second >= first)
+			second++;
+		Node a = candidates.get(first);
+		Node b = candidates.get(second);
+		return a.outstanding.get() <= b.outstanding.get() ? a : b;
+	}
+
+	/**
+	 * Record a failed request, opening the circuit of the server after too
+	 * many of them.
+	 */
+	private void failed(Node node) {
+		if (node.circuit.failed())
+			opened(node);
+	}
+
+	/**
+	 * Drop the connections to a server whose circuit just opened and schedule
+	 * its probe.
+	 */
+	private void opened(Node node) {
+		System.err.println("Parser server " + node
+				+ " is not available, opening its circuit.");
+		node.pool.close();
+		scheduleProbe(node);
+	}
+
+	/**
+	 * Probe a server with an open circuit after its backoff. Half of the
+	 * backoff is random, so that the clients of a server which went down do
+	 * not all probe it at the same moment.
+	 */
+	private void scheduleProbe(final Node node) {
+		long backoff = node.circuit.getBackoffMillis();
+		long delay = backoff / 2
+				+ ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					probe(node);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// the cluster is closed
+		}
+	}
+
+	/**
+	 * Half open the circuit of a server and connect to it, closing the circuit
+	 * if the server answers and opening it for a longer backoff otherwise.
+	 */
+	private void probe(Node node) {
+		if (!node.circuit.halfOpen())
+			return;
+		try {
+			new ParserConnection(node.host, node.port, features).close();
+			node.circuit.reset();
+			System.err.println("Parser server " + node
+					+ " is back, closing its circuit.");
+		} catch (IOException e) {
+			node.circuit.failed();
+			scheduleProbe(node);
+		}
+	}
+
+	/**
+	 * Open a new connection to every server with a closed circuit and
+	 * negotiate with it.
+	 */
+	private void checkHealth() {
+		for (Node node : nodes) {
+			if (!node.circuit.allowsRequests())
+				continue;
+			try {
+				new ParserConnection(node.host, node.port, features).close();
+			} catch (IOException e) {
+				if (node.circuit.trip())
+					opened(node);
+			}
+		}
+	}
+
+	/**
+	 * Stop the health check and close all the connections.
+	 */
+	void close() {
+		scheduler.shutdownNow();
+		for (Node node : nodes) {
+			node.pool.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ParserCluster[");
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			if (i > 0)
+				sb.append(", ");
+			sb.append(node).append(' ').append(node.circuit.getState())
+					.append(" outstanding=").append(node.outstanding.get());
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * State of a request of {@link #requestAsync(byte, byte[], long)} while it
+	 * moves from server to server.
+	 */
+	private class AsyncRequest {
+		private final byte type;
+		private final byte[] payload;
+		private final long timeoutMillis;
+		private final long deadline;
+		private final Consumer<Frame> streamed;
+		private final CompletableFuture<Reply> reply;
+		/**
+		 * True once a tree of a stream arrived.
+		 */
+		private volatile boolean streaming;
+		/**
+		 * Servers tried in this round; only one attempt runs at a time.
+		 */
+		private final List<Node> tried = new ArrayList<Node>(2);
+		/**
+		 * True if a server of this round answered busy.
+		 */
+		private boolean busy;
+		private int retries;
+
+		AsyncRequest(byte type, byte[] payload, long timeoutMillis,
+				final Consumer<Frame> streamed, CompletableFuture<Reply> reply) {
+			this.type = type;
+			this.payload = payload;
+			this.timeoutMillis = timeoutMillis;
+			this.deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			this.streamed = streamed == null ? null : new Consumer<Frame>() {
+				@Override
+				public void accept(Frame frame) {
+					streaming = true;
+					streamed.accept(frame);
+				}
+			};
+			this.reply = reply;
+		}
+
+		/**
+		 * Send the request to a server, connecting to it on the scheduler if
+		 * the connection is not open, so the caller does not wait for it.
+		 */
+		void attempt(final Node node) {
+			tried.add(node);
+			final long remaining;
+			if (timeoutMillis > 0) {
+				remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+						- System.nanoTime());
+				if (remaining <= 0) {
+					reply.completeExceptionally(new TimeoutException(
+							"Deadline exceeded"));
+					return;
+				}
+			} else {
+				remaining = 0;
+			}
+
+			node.outstanding.incrementAndGet();
+			ParserConnection connection = node.pool.acquireOpen();
+			if (connection != null) {
+				send(node, connection, remaining);
+				return;
+			}
+			try {
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						ParserConnection connection;
+						try {
+							connection = node.pool.acquire();
+						} catch (IOException e) {
+							node.outstanding.decrementAndGet();
+							failed(node);
+							next();
+							return;
+						}
+						send(node, connection, remaining);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				node.outstanding.decrementAndGet();
+				reply.completeExceptionally(new IOException(
+						"Parser cluster is closed."));
+			}
+		}
+
+		private void send(final Node node, final ParserConnection connection,
+				long remaining) {
+			final CompletableFuture<Frame> response = connection.send(type,
+					payload, remaining, streamed);
+			response.whenComplete(new BiConsumer<Frame, Throwable>() {
+				@Override
+				public void accept(Frame frame, Throwable failure) {
+					node.outstanding.decrementAndGet();
+					if (failure instanceof CancellationException) {
+						// abandoned after the request timed out
+						return;
+					}
+					if (failure != null) {
+						// the connection broke
+						failed(node);
+						next();
+						return;
+					}
+					List<String> degradations;
+					try {
+						degradations = connection.takeDegradations(frame);
+					} catch (IOException e) {
+						failed(node);
+						next();
+						return;
+					}
+					node.circuit.succeeded();
+					if (frame.getType() == ParserProtocol.TIMEOUT) {
+						reply.completeExceptionally(new TimeoutException(frame
+								.getText()));
+					} else if (frame.getType() == ParserProtocol.BUSY) {
+						node.backOff(ParserProtocol.retryAfterMillis(frame));
+						busy = true;
+						next();
+					} else {
+						reply.complete(new Reply(frame, degradations));
+					}
+				}
+			});
+			reply.whenComplete(new BiConsumer<Reply, Throwable>() {
+				@Override
+				public void accept(Reply result, Throwable failure) {
+					// the request timed out, its late response is ignored;
+					// cancelling the response releases its place on the node
+					if (!response.isDone()) {
+						connection.abandon(response);
+						response.cancel(false);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Move on to the next server, unless the request is already complete
+		 * or the failed server already sent trees of a stream. When every
+		 * server was tried and one of them was busy, start the next round
+		 * after the busy wait.
+		 */
+		void next() {
+			if (reply.isDone())
+				return;
+			if (streaming) {
+				reply.completeExceptionally(new IOException(
+						"Parser server failed in the middle of a stream."));
+				return;
+			}
+			Node node = choose(tried);
+			if (node != null) {
+				attempt(node);
+				return;
+			}
+			if (tried.isEmpty()) {
+				if (!isAvailable()) {
+					reply.completeExceptionally(new CircuitOpenException());
+					return;
+				}
+				// every server asked to be left alone for a while
+				busy = true;
+			}
+			if (!busy) {
+				reply.completeExceptionally(new IOException(
+						"No parser server available."));
+				return;
+			}
+			long wait = busyWait(retries, timeoutMillis, deadline);
+			if (wait < 0) {
+				reply.completeExceptionally(new IOException(
+						"Parser servers are busy."));
+				return;
+			}
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						tried.clear();
+						busy = false;
+						retries++;
+						next();
+					}
+				}, wait, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				reply.completeExceptionally(new IOException(
+						"Parser cluster is closed."));
+			}
+		}
+	}
+
+	/**
+	 * One parser server and the connections to it.
+	 */
+	private static class Node {
+		final String host;
+		final int port;
+		final ParserConnectionPool pool;
+		final CircuitBreaker circuit;
+		final AtomicInteger outstanding = new AtomicInteger();
+		/**
+		 * System.nanoTime() until which the server asked to get no requests.
+		 */
+		volatile long busyUntil = System.nanoTime();
+
+		Node(String host, int port, int connections, int features,
+				CircuitBreaker circuit) {
+			this.host = host;
+			this.port = port;
+			this.pool = new ParserConnectionPool(host, port, connections,
+					features);
+			this.circuit = circuit;
+		}
+
+		/**
+		 * Leave the server alone for the retry-after hint of its BUSY frame.
+		 */
+		void backOff(long retryAfterMillis) {
+			if (retryAfterMillis > 0)
+				busyUntil = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.FrameDecoder;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.FrameEncoder;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+
+/**
+ * A persistent connection to the parser server. Requests are written as soon
+ * as they are sent and their responses are matched by request id on a reader
+ * thread, so several requests can be in flight on one connection. A server
+ * with {@link ParserProtocol#FEATURE_CREDITS} limits how many; requests beyond
+ * that limit are not sent but answered with a {@link ParserProtocol#BUSY}
+ * frame of the connection itself.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserConnectionPool
+ */
+class ParserConnection {
+
+	private final SocketChannel channel;
+	private final FrameDecoder decoder = new FrameDecoder();
+	private final FrameEncoder encoder = new FrameEncoder();
+	private final Map<Integer, CompletableFuture<Frame>> pending = new ConcurrentHashMap<Integer, CompletableFuture<Frame>>();
+	private final Map<Integer, Frame> notices = new ConcurrentHashMap<Integer, Frame>();
+	private final Map<Integer, Consumer<Frame>> streams = new ConcurrentHashMap<Integer, Consumer<Frame>>();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	/**
+	 * Ids of the requests which take a credit until their response ends.
+	 */
+	private final Set<Integer> credited = Collections
+			.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	private final AtomicInteger outstanding = new AtomicInteger();
+	/**
+	 * Requests the server lets the client have outstanding, 0 for no limit.
+	 */
+	private volatile int credits;
+	private volatile boolean closed;
+	private int features;
+
+	private static final int HELLO_TIMEOUT_SECONDS = 5;
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Connect to the parser server and negotiate the optional protocol
+	 * features.
+	 * 
+	 * @param host
+	 *            server host
+	 * @param port
+	 *            server port
+	 * @param features
+	 *            bitmask of the FEATURE constants of {@link ParserProtocol}
+	 *            the client would like to use
+	 * @throws IOException
+	 *             if the server cannot be reached
+	 */
+	ParserConnection(String host, int port, int features) throws IOException {
+		channel = SocketChannel.open();
+		try {
+			// an unreachable server of a cluster must not hold the caller for
+			// the minutes of the TCP connect timeout
+			channel.socket().connect(new InetSocketAddress(host, port),
+					CONNECT_TIMEOUT_MILLIS);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		channel.socket().setTcpNoDelay(true);
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, "parser-connection-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		if (features != 0)
+			negotiate(features);
+	}
+
+	/**
+	 * Exchange {@link ParserProtocol#HELLO} frames with the server. A server
+	 * which does not know HELLO answers with an error and gets no optional
+	 * features.
+	 */
+	private void negotiate(int features) throws IOException {
+		try {
+			Frame reply = send(ParserProtocol.HELLO,
+					ByteBuffer.allocate(4).putInt(features).array()).get(
+					HELLO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			if (reply.getType() == ParserProtocol.HELLO) {
+				ByteBuffer hello = ByteBuffer.wrap(reply.getPayload());
+				this.features = hello.getInt();
+				if (hasFeature(ParserProtocol.FEATURE_CREDITS)
+						&& hello.remaining() >= 4)
+					this.credits = hello.getInt();
+			}
+		} catch (Exception e) {
+			close();
+			throw new IOException("Parser server did not answer HELLO.", e);
+		}
+	}
+
+	/**
+	 * @param feature
+	 *            one of the FEATURE constants of {@link ParserProtocol}
+	 * @return true if the server enabled the feature for this connection
+	 */
+	boolean hasFeature(int feature) {
+		return (features & feature) != 0;
+	}
+
+	/**
+	 * @return true if a request sent now would be within the credits of the
+	 *         connection
+	 */
+	boolean hasCredit() {
+		int limit = credits;
+		return limit == 0 || outstanding.get() < limit;
+	}
+
+	/**
+	 * Take a credit for a request.
+	 * 
+	 * @return false if the credits are used up
+	 */
+	private boolean reserveCredit() {
+		while (true) {
+			int current = outstanding.get();
+			int limit = credits;
+			if (limit > 0 && current >= limit)
+				return false;
+			if (outstanding.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	private void releaseCredit(int requestId) {
+		if (credited.remove(requestId))
+			outstanding.decrementAndGet();
+	}
+
+	/**
+	 * Send a request to the server.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @return future completed with the response frame
+	 */
+	CompletableFuture<Frame> send(byte type, byte[] payload) {
+		return send(type, payload, 0);
+	}
+
+	/**
+	 * Send a request to the server and announce its deadline, if the server
+	 * takes {@link ParserProtocol#DEADLINE} frames.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time the client waits for the response, 0 to wait as long as
+	 *            it takes
+	 * @return future completed with the response frame
+	 */
+	CompletableFuture<Frame> send(byte type, byte[] payload,
+			long timeoutMillis) {
+		return send(type, payload, timeoutMillis, null);
+	}
+
+	/**
+	 * Send a {@link ParserProtocol#STREAM} request, whose trees are handed to
+	 * the listener as they arrive.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time the client waits for the response, 0 to wait as long as
+	 *            it takes
+	 * @param streamed
+	 *            receives the {@link ParserProtocol#STREAM_TREE} and
+	 *            {@link ParserProtocol#STREAM_BINARY_TREE} frames of the
+	 *            request on the reader thread, null for a plain request
+	 * @return future completed with the frame which ends the response
+	 */
+	CompletableFuture<Frame> send(byte type, byte[] payload,
+			long timeoutMillis, Consumer<Frame> streamed) {
+		int requestId = nextRequestId.incrementAndGet();
+		CompletableFuture<Frame> response = new CompletableFuture<Frame>();
+		if (type != ParserProtocol.HELLO) {
+			// the server would reject it anyway
+			if (!reserveCredit()) {
+				response.complete(new Frame(ParserProtocol.BUSY, requestId,
+						new byte[0]));
+				return response;
+			}
+			credited.add(requestId);
+		}
+		if (streamed != null)
+			streams.put(requestId, streamed);
+		pending.put(requestId, response);
+		try {
+			synchronized (encoder) {
+				if (timeoutMillis > 0
+						&& hasFeature(ParserProtocol.FEATURE_DEADLINES)) {
+					int timeout = (int) Math.min(timeoutMillis,
+							Integer.MAX_VALUE);
+					encoder.write(channel, new Frame(ParserProtocol.DEADLINE,
+							requestId, ByteBuffer.allocate(4).putInt(timeout)
+									.array()));
+				}
+				encoder.write(channel, new Frame(type, requestId, payload));
+			}
+		} catch (IOException e) {
+			pending.remove(requestId);
+			streams.remove(requestId);
+			releaseCredit(requestId);
+			response.completeExceptionally(e);
+			close();
+		}
+		return response;
+	}
+
+	/**
+	 * Send a request and wait for its response.
+	 * 
+	 * @param type
+	 *            request frame type
+	 * @param payload
+	 *            request body
+	 * @param timeoutMillis
+	 *            time to wait for the response, 0 to wait as long as it takes
+	 * @return the response frame
+	 * @throws TimeoutException
+	 *             if the response did not arrive in time; the request is
+	 *             abandoned and its late response ignored
+	 * @throws ExecutionException
+	 *             if the connection failed
+	 * @throws InterruptedException
+	 */
+	Frame request(byte type, byte[] payload, long timeoutMillis)
+			throws TimeoutException, ExecutionException, InterruptedException {
+		CompletableFuture<Frame> response = send(type, payload, timeoutMillis);
+		if (timeoutMillis <= 0)
+			return response.get();
+		try {
+			return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			abandon(response);
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop waiting for the response of a request; its late response is
+	 * ignored.
+	 * 
+	 * @param response
+	 *            future returned by {@link #send(byte, byte[], long)}
+	 */
+	void abandon(CompletableFuture<Frame> response) {
+		for (Map.Entry<Integer, CompletableFuture<Frame>> entry : pending
+				.entrySet()) {
+			if (entry.getValue() == response) {
+				pending.remove(entry.getKey());
+				streams.remove(entry.getKey());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Take the {@link ParserProtocol#DEGRADED} notice the server sent before
+	 * the given response.
+	 * 
+	 * @param response
+	 *            response frame of a request
+	 * @return one degradation per sentence of the request, empty for the
+	 *         sentences parsed normally, or null if nothing was degraded
+	 * @throws IOException
+	 *             if the notice is malformed
+	 */
+	List<String> takeDegradations(Frame response) throws IOException {
+		Frame notice = notices.remove(response.getRequestId());
+		return notice == null ? null : ParserProtocol.decodeStrings(notice
+				.getPayload());
+	}
+
+	/**
+	 * @return true if the connection can no longer be used
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Close the connection and fail all the requests still in flight.
+	 */
+	void close() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		streams.clear();
+		IOException failure = new IOException("Connection to parser server closed.");
+		for (Integer requestId : pending.keySet()) {
+			CompletableFuture<Frame> response = pending.remove(requestId);
+			if (response != null)
+				response.completeExceptionally(failure);
+		}
+	}
+
+	private void readResponses() {
+		try {
+			Frame frame;
+			while ((frame = decoder.read(channel)) != null) {
+				if (frame.getType() == ParserProtocol.STREAM_TREE
+						|| frame.getType() == ParserProtocol.STREAM_BINARY_TREE) {
+					Consumer<Frame> streamed = streams.get(frame
+							.getRequestId());
+					if (streamed != null)
+						streamed.accept(frame);
+					continue;
+				}
+				if (frame.getType() == ParserProtocol.DEGRADED) {
+					// kept until the response which follows it is taken
+					notices.put(frame.getRequestId(), frame);
+					continue;
+				}
+				// the response ends here, even if it was abandoned, so the
+				// server no longer counts the request
+				streams.remove(frame.getRequestId());
+				releaseCredit(frame.getRequestId());
+				CompletableFuture<Frame> response = pending.remove(frame
+						.getRequestId());
+				if (response != null) {
+					response.complete(frame);
+				} else {
+					// late response of an abandoned request
+					notices.remove(frame.getRequestId());
+				}
+			}
+		} catch (IOException e) {
+			if (!closed)
+				System.err.println("Connection to parser server failed: " + e);
+		} finally {
+			close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed number of persistent connections to one parser server which are
+ * shared by all the threads of the client. Connections are opened on first
+ * use and reopened when they break. A connection whose credits are used up is
+ * passed over for one which still has some.
+ * 
+ * @author Sanjay_Meena
+ * @see ParserConnection
+ */
+class ParserConnectionPool {
+
+	private final String host;
+	private final int port;
+	private final int features;
+	private final ParserConnection[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param host
+	 *            server host
+	 * @param port
+	 *            server port
+	 * @param size
+	 *            number of connections
+	 * @param features
+	 *            protocol features to negotiate on every connection
+	 */
+	ParserConnectionPool(String host, int port, int size, int features) {
+		this.host = host;
+		this.port = port;
+		this.features = features;
+		this.connections = new ParserConnection[size];
+	}
+
+	/**
+	 * Pick the next connection in round robin order, connecting it if needed.
+	 * The connection is made without holding the pool, so callers of the
+	 * other slots do not wait for it.
+	 * 
+	 * @return open connection
+	 * @throws IOException
+	 *             if the server cannot be reached
+	 */
+	ParserConnection acquire() throws IOException {
+		int slot = (next.getAndIncrement() & Integer.MAX_VALUE)
+				% connections.length;
+		synchronized (connections) {
+			ParserConnection connection = connections[slot];
+			if (connection != null && !connection.isClosed())
+				return withCredit(slot, connection);
+		}
+
+		// connect without the lock, the other slots stay usable meanwhile
+		ParserConnection opened = new ParserConnection(host, port, features);
+		synchronized (connections) {
+			ParserConnection connection = connections[slot];
+			if (connection != null && !connection.isClosed()) {
+				// another thread connected the slot first
+				opened.close();
+				return withCredit(slot, connection);
+			}
+			connections[slot] = opened;
+			return withCredit(slot, opened);
+		}
+	}
+
+	/**
+	 * Pick the next connection in round robin order if it is open, without
+	 * connecting.
+	 * 
+	 * @return open connection, or null if the connection has to be opened
+	 *         with {@link #acquire()}
+	 */
+	ParserConnection acquireOpen() {
+		int slot = (next.getAndIncrement() & Integer.MAX_VALUE)
+				% connections.length;
+		synchronized (connections) {
+			ParserConnection connection = connections[slot];
+			return connection == null || connection.isClosed() ? null
+					: withCredit(slot, connection);
+		}
+	}
+
+	/**
+	 * @return the connection of the slot if it has credits left, otherwise
+	 *         the next open connection which has, or the connection of the
+	 *         slot if none has
+	 */
+	private ParserConnection withCredit(int slot, ParserConnection connection) {
+		if (connection.hasCredit())
+			return connection;
+		for (int i = 1; i < connections.length; i++) {
+			ParserConnection other = connections[(slot + i)
+					% connections.length];
+			if (other != null && !other.isClosed() && other.hasCredit())
+				return other;
+		}
+		return connection;
+	}
+
+	/**
+	 * Close all the connections of the pool.
+	 */
+	void close() {
+		synchronized (connections) {
+			for (int i = 0; i < connections.length; i++) {
+				if (connections[i] != null) {
+					connections[i].close();
+					connections[i] = null;
+				}
+			}
+		}
+	}
+}
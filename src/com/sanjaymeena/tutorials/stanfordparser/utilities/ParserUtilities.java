@@ -4,17 +4,40 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.StringReader;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
-
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngine;
+import com.sanjaymeena.tutorials.stanfordparser.engine.ParserEngines;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog;
+import com.sanjaymeena.tutorials.stanfordparser.metrics.AsyncLog.Level;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.Frame;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.ParserProtocol;
+import com.sanjaymeena.tutorials.stanfordparser.protocol.TreeCodec;
 import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleDomParser;
 import com.sanjaymeena.tutorials.stanfordparser.utilities.dom.SimpleElement;
 
-import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
-import edu.stanford.nlp.parser.lexparser.Options;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.process.DocumentPreprocessor;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
 import edu.stanford.nlp.trees.PennTreeReader;
 import edu.stanford.nlp.trees.Tree;
@@ -28,9 +51,64 @@ import edu.stanford.nlp.trees.TreeReader;
 public class ParserUtilities {
 
 	private ParserUtilities() {
-		englishStanfordParser = null;
 		tree_factory = new LabeledScoredTreeFactory();
-
+		readconfig(CONFIG_FILE);
+
+		// binary trees are decoded straight into Tree objects, Penn strings
+		// have to be tokenized and read
+		String binaryTrees = preferences.get("binaryTrees");
+		int features = 0;
+		if (binaryTrees == null || Boolean.parseBoolean(binaryTrees))
+			features |= ParserProtocol.FEATURE_BINARY_TREES;
+		// degraded parses of an overloaded server are reported in the
+		// ParseResult
+		features |= ParserProtocol.FEATURE_DEGRADATION_NOTICES;
+		// the server gives up on requests which are not answered in time
+		features |= ParserProtocol.FEATURE_DEADLINES;
+		// the server tells how many requests may be outstanding on a
+		// connection, the client keeps within that
+		features |= ParserProtocol.FEATURE_CREDITS;
+		timeoutMillis = intPreference("timeout", 0);
+		debug = AsyncLog.level(preferences.get("logLevel")) == Level.DEBUG;
+		// parser servers as host:port list, by default the one on the
+		// configured port of this host
+		String serverList = preferences.get("servers");
+		if (serverList == null || serverList.trim().isEmpty())
+			serverList = "127.0.0.1:" + intPreference("port", 5556);
+		// sentences of the asynchronous requests which no server takes are
+		// parsed on these threads instead of the callers'
+		localExecutor = Executors.newFixedThreadPool(Math.max(1,
+				intPreference("localThreads", Runtime.getRuntime()
+						.availableProcessors())), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "parser-local-"
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		servers = new ParserCluster(serverList, intPreference(
+				"serverConnections", 4), features, intPreference(
+				"healthCheckInterval", 5000), intPreference("circuitFailures",
+				2), intPreference("circuitBackoff", 1000), intPreference(
+				"circuitMaxBackoff", 60000), intPreference("busyRetries", 3),
+				intPreference("busyRetryDelay", 50));
+
+		if (Boolean.parseBoolean(preferences.get("eagerLoad"))) {
+			// load and warm up the local parser in the background, so that a
+			// fallback to it does not pay for the model load
+			Thread warmUpThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					warmUp();
+				}
+			}, "parser-warmup");
+			warmUpThread.setDaemon(true);
+			warmUpThread.start();
+		}
 	}
 
 	/**
@@ -39,10 +117,62 @@ public class ParserUtilities {
 	 * @return AnalysisUtilities
 	 */
 	public static ParserUtilities getInstance() {
-		if (instance == null) {
-			instance = new ParserUtilities();
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Holds the instance, created on first use by the class loader.
+	 */
+	private static class InstanceHolder {
+		static final ParserUtilities INSTANCE = new ParserUtilities();
+	}
+
+	/**
+	 * Holds the local parser and its cache. The class loader runs
+	 * {@link ParserUtilities#loadLocalParser()} exactly once, when the first
+	 * thread falls back to the local parser; all the other threads wait for it
+	 * and then read the fields without locking.
+	 */
+	private static class LocalParserHolder {
+		static final LocalParser PARSER;
+		static final ParseCache CACHE;
+
+		static {
+			PARSER = loadLocalParser();
+			int cacheSize = intPreference("cacheSize", 0);
+			if (PARSER != null && cacheSize > 0) {
+				CACHE = new ParseCache(cacheSize, intPreference("cacheMemory",
+						64) * 1024L * 1024L,
+						ParserEngines.describe(preferences));
+			} else {
+				CACHE = null;
+			}
+			localParseCache = CACHE;
+		}
+	}
+
+	/**
+	 * Load the local parser if it is not loaded yet and run the warm-up corpus
+	 * (preference "warmup") through it "warmupRounds" times, so that the first
+	 * fallback to the local parser does not pay for the model load and the
+	 * compilation of the parsing loops.
+	 */
+	public void warmUp() {
+		LocalParser parser = LocalParserHolder.PARSER;
+		if (parser == null)
+			return;
+
+		List<String> corpus = WarmUpCorpus.load(preferences.get("warmup"));
+		int rounds = Math.max(1, intPreference("warmupRounds", 1));
+		long start = System.currentTimeMillis();
+		for (int round = 0; round < rounds; round++) {
+			for (String sentence : corpus) {
+				parser.parse(sentence);
+			}
 		}
-		return instance;
+		System.err.println("Warm-up of " + corpus.size() + " sentences x "
+				+ rounds + " done [" + (System.currentTimeMillis() - start)
+				+ " ms]");
 	}
 
 	/**
@@ -54,101 +184,516 @@ public class ParserUtilities {
 	 * @return the parsed result
 	 */
 	public ParseResult parseEnglishSentence(String sentence) {
-		String result = "";
-		// Tree parse = null;
-		// double parseScore = Double.MIN_VALUE;
-		//
-		// System.err.println(sentence);
-		// see if a parser socket server is available
-		int port = 5556;
-		String host = "127.0.0.1";
-		Socket client;
-		PrintWriter pw;
-		BufferedReader br;
-		String line;
-		Tree parse = null;
-		double parseScore = Double.MIN_VALUE;
+		return parseEnglishSentence(sentence, timeoutMillis,
+				TimeUnit.MILLISECONDS);
+	}
 
+	/**
+	 * Parse a sentence with a deadline. The parser server gives up on the
+	 * sentence when the deadline passes.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @param timeout
+	 *            time to wait for the parse, 0 to wait as long as it takes
+	 * @param unit
+	 *            unit of the timeout
+	 * @return the parsed result, failed if the deadline passed
+	 */
+	public ParseResult parseEnglishSentence(String sentence, long timeout,
+			TimeUnit unit) {
+		// see if a parser socket server is available
 		try {
-			client = new Socket(host, port);
-
-			pw = new PrintWriter(client.getOutputStream());
-			br = new BufferedReader(new InputStreamReader(
-					client.getInputStream()));
-			pw.println(sentence);
-			pw.flush(); // flush to complete the transmission
-
-			/**
-			 * 1)Removed the ready method. It was giving issues 2)Removed the
-			 * else condition and parseScore method
-			 */
-			while ((line = br.readLine()) != null) {
-				line = line.replaceAll("\n", "");
-				line = line.replaceAll("\\s+", " ");
-				result += line + " ";
+			// busy servers are skipped; only if none of them takes the
+			// request, it is parsed locally
+			return toParseResult(servers.request(ParserProtocol.PARSE,
+					sentence.getBytes(StandardCharsets.UTF_8),
+					unit.toMillis(timeout)));
+		} catch (TimeoutException ex) {
+			// there is no time left for the local parser either
+			System.err.println("Parse timed out: " + sentence);
+			return failedResult();
+		} catch (CircuitOpenException ex) {
+			// no server is up, parse locally right away
+		} catch (Exception ex) {
 
-			}
+			System.err.println("Could not connect to parser server.");
+			// ex.printStackTrace();
+		}
 
-			br.close();
-			pw.close();
-			client.close();
+		return parseLocally(sentence);
+	}
 
-			if (parse == null) {
-				parse = readTreeFromString("(ROOT (. .))");
-				parseScore = -99999.0;
-			}
+	/**
+	 * Parse a sentence without blocking the calling thread. The request is
+	 * multiplexed over the shared connections to the parser servers and the
+	 * future is completed by the thread which reads the response; if no
+	 * server takes the request, the sentence is parsed on one of the threads
+	 * of the local parser.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return future of the parsed result, which does not complete
+	 *         exceptionally
+	 */
+	public CompletableFuture<ParseResult> parseAsync(String sentence) {
+		return parseAsync(sentence, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
 
-			System.err.println("result (parse):" + result);
-			parse = readTreeFromString(result);
-			return new ParseResult(true, parse, parseScore);
+	/**
+	 * Parse a sentence with a deadline without blocking the calling thread.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @param timeout
+	 *            time to wait for the parse, 0 to wait as long as it takes
+	 * @param unit
+	 *            unit of the timeout
+	 * @return future of the parsed result, failed if the deadline passed
+	 */
+	public CompletableFuture<ParseResult> parseAsync(final String sentence,
+			long timeout, TimeUnit unit) {
+		final CompletableFuture<ParseResult> result = new CompletableFuture<ParseResult>();
+		servers.requestAsync(ParserProtocol.PARSE,
+				sentence.getBytes(StandardCharsets.UTF_8),
+				unit.toMillis(timeout)).whenComplete(
+				new BiConsumer<ParserCluster.Reply, Throwable>() {
+					@Override
+					public void accept(ParserCluster.Reply reply,
+							Throwable failure) {
+						if (failure == null) {
+							try {
+								result.complete(toParseResult(reply));
+							} catch (Exception e) {
+								result.complete(failedResult());
+							}
+							return;
+						}
+						if (failure instanceof CompletionException)
+							failure = failure.getCause();
+						if (failure instanceof TimeoutException) {
+							System.err.println("Parse timed out: " + sentence);
+							result.complete(failedResult());
+							return;
+						}
+						if (!(failure instanceof CircuitOpenException))
+							System.err
+									.println("Could not connect to parser server.");
+						parseLocallyAsync(sentence, result);
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * Parse a stream of sentences without blocking the calling thread. At most
+	 * maxInFlight sentences are parsed at a time; the next sentence is taken
+	 * from the iterator when the result of an earlier one was handed to the
+	 * consumer, so a slow consumer holds back the stream. The results are
+	 * handed over in the order of the sentences, on the thread which
+	 * completed the parse.
+	 * 
+	 * @param sentences
+	 *            source sentences, taken as the stream proceeds
+	 * @param maxInFlight
+	 *            largest number of sentences parsed at a time
+	 * @param consumer
+	 *            receives the parsed results in order
+	 * @return future of the number of sentences parsed, completed
+	 *         exceptionally if the iterator or the consumer failed
+	 */
+	public CompletableFuture<Long> parseAsync(Iterator<String> sentences,
+			int maxInFlight, Consumer<ParseResult> consumer) {
+		return new AsyncParseStream(this, sentences, maxInFlight, consumer)
+				.start();
+	}
 
+	/**
+	 * Split a document into sentences and parse all of them. The parser server
+	 * splits and parses the whole document in one round trip; without a server
+	 * the sentences are parsed one by one with the local parser.
+	 * 
+	 * @param document
+	 *            source document
+	 * @return one parse result per sentence in order
+	 */
+	public List<ParseResult> parseDocument(String document) {
+		return parseDocument(document, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Split a document into sentences and parse all of them with a deadline.
+	 * 
+	 * @param document
+	 *            source document
+	 * @param timeout
+	 *            time to wait for the parses, 0 to wait as long as it takes
+	 * @param unit
+	 *            unit of the timeout
+	 * @return one parse result per sentence in order, all failed if the
+	 *         deadline passed
+	 */
+	public List<ParseResult> parseDocument(String document, long timeout,
+			TimeUnit unit) {
+		try {
+			ParserCluster.Reply response = servers.request(
+					ParserProtocol.DOCUMENT,
+					document.getBytes(StandardCharsets.UTF_8),
+					unit.toMillis(timeout));
+			return toParseResults(response.frame, response.degradations);
+		} catch (TimeoutException ex) {
+			System.err.println("Document parse timed out.");
+			return failedResults(splitDocument(document).size());
+		} catch (CircuitOpenException ex) {
+			// no server is up, parse locally right away
 		} catch (Exception ex) {
+			System.err.println("Could not connect to parser server.");
+		}
+
+		List<ParseResult> results = new ArrayList<ParseResult>();
+		for (String sentence : splitDocument(document)) {
+			results.add(parseLocally(sentence));
+		}
+		return results;
+	}
 
+	/**
+	 * Split a document into sentences and receive the tree of every sentence
+	 * as soon as the parser server parsed it, instead of waiting for the whole
+	 * document.
+	 * 
+	 * @param document
+	 *            source document
+	 * @param reorderWindow
+	 *            0 to receive the trees in the order the sentences finish,
+	 *            otherwise the trees arrive in the order of the sentences and
+	 *            the server parses at most this many sentences ahead of the
+	 *            next tree
+	 * @param consumer
+	 *            receives the index of every sentence and its parsed result,
+	 *            on the thread which read it
+	 * @return future of the number of sentences, see
+	 *         {@link #streamDocument(String, int, long, TimeUnit, BiConsumer)}
+	 */
+	public CompletableFuture<Integer> streamDocument(String document,
+			int reorderWindow, BiConsumer<Integer, ParseResult> consumer) {
+		return streamDocument(document, reorderWindow, timeoutMillis,
+				TimeUnit.MILLISECONDS, consumer);
+	}
+
+	/**
+	 * Stream the trees of a document with a deadline. If no server takes the
+	 * request, the sentences are parsed locally and handed to the consumer in
+	 * order.
+	 * 
+	 * @param document
+	 *            source document
+	 * @param reorderWindow
+	 *            0 for completion order, otherwise the reorder window of the
+	 *            server
+	 * @param timeout
+	 *            time to wait for the last tree, 0 to wait as long as it takes
+	 * @param unit
+	 *            unit of the timeout
+	 * @param consumer
+	 *            receives the index of every sentence and its parsed result
+	 * @return future of the number of sentences, completed exceptionally with
+	 *         a TimeoutException if the deadline passed or an IOException if
+	 *         the server failed after it sent the first trees
+	 */
+	public CompletableFuture<Integer> streamDocument(final String document,
+			int reorderWindow, long timeout, TimeUnit unit,
+			final BiConsumer<Integer, ParseResult> consumer) {
+		final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+		final AtomicBoolean started = new AtomicBoolean();
+		byte[] text = document.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = ByteBuffer.allocate(4 + text.length)
+				.putInt(reorderWindow).put(text).array();
+
+		servers.requestAsync(ParserProtocol.STREAM, payload,
+				unit.toMillis(timeout), new Consumer<Frame>() {
+					@Override
+					public void accept(Frame frame) {
+						started.set(true);
+						try {
+							consumer.accept(ParserProtocol
+									.streamTreeIndex(frame.getPayload()),
+									toStreamedResult(frame));
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}).whenComplete(
+				new BiConsumer<ParserCluster.Reply, Throwable>() {
+					@Override
+					public void accept(ParserCluster.Reply reply,
+							Throwable failure) {
+						if (failure == null
+								&& reply.frame.getType() == ParserProtocol.STREAM_END) {
+							result.complete(ByteBuffer.wrap(
+									reply.frame.getPayload()).getInt());
+							return;
+						}
+						if (failure == null) {
+							failure = new IOException("Parser server failed: "
+									+ reply.frame.getText());
+						} else if (failure instanceof CompletionException) {
+							failure = failure.getCause();
+						}
+						if (started.get()
+								|| failure instanceof TimeoutException) {
+							result.completeExceptionally(failure);
+							return;
+						}
+						if (!(failure instanceof CircuitOpenException))
+							System.err
+									.println("Could not stream from parser server: "
+											+ failure.getMessage());
+						streamLocally(document, consumer, result);
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * Parse a batch of sentences. The parser server parses all of them in one
+	 * round trip; without a server they are parsed one by one with the local
+	 * parser.
+	 * 
+	 * @param sentences
+	 *            source sentences, one sentence per string
+	 * @return one parse result per sentence in order
+	 */
+	public List<ParseResult> parseBatch(List<String> sentences) {
+		return parseBatch(sentences, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Parse a batch of sentences with a deadline.
+	 * 
+	 * @param sentences
+	 *            source sentences, one sentence per string
+	 * @param timeout
+	 *            time to wait for the parses, 0 to wait as long as it takes
+	 * @param unit
+	 *            unit of the timeout
+	 * @return one parse result per sentence in order, all failed if the
+	 *         deadline passed
+	 */
+	public List<ParseResult> parseBatch(List<String> sentences, long timeout,
+			TimeUnit unit) {
+		try {
+			ParserCluster.Reply response = servers.request(
+					ParserProtocol.BATCH,
+					ParserProtocol.encodeStrings(sentences),
+					unit.toMillis(timeout));
+			return toParseResults(response.frame, response.degradations);
+		} catch (TimeoutException ex) {
+			System.err.println("Batch parse timed out.");
+			return failedResults(sentences.size());
+		} catch (CircuitOpenException ex) {
+			// no server is up, parse locally right away
+		} catch (Exception ex) {
 			System.err.println("Could not connect to parser server.");
-			// ex.printStackTrace();
 		}
 
-		System.err.println("parsing:" + sentence);
+		List<ParseResult> results = new ArrayList<ParseResult>(sentences.size());
+		for (String sentence : sentences) {
+			results.add(parseLocally(sentence));
+		}
+		return results;
+	}
 
-		// if socket server not available, then use a local parser object
-		if (englishStanfordParser == null) {
+	/**
+	 * Convert the {@link ParserProtocol#TREE} or
+	 * {@link ParserProtocol#BINARY_TREE} reply of a sentence request.
+	 */
+	private ParseResult toParseResult(ParserCluster.Reply response)
+			throws IOException {
+		Frame reply = response.frame;
+		if (reply.getType() == ParserProtocol.BINARY_TREE) {
+			Tree parse = TreeCodec.decode(reply.getPayload(), tree_factory);
+			return degraded(new ParseResult(true, parse, Double.MIN_VALUE),
+					response.degradations, 0);
+		}
+		if (reply.getType() != ParserProtocol.TREE) {
+			System.err.println("Parser server failed: " + reply.getText());
+			return failedResult();
+		}
+
+		String result = reply.getText();
+		if (debug)
+			System.err.println("result (parse):" + result);
+		Tree parse = readTreeFromString(result);
+		return degraded(new ParseResult(true, parse, Double.MIN_VALUE),
+				response.degradations, 0);
+	}
+
+	/**
+	 * Convert a {@link ParserProtocol#STREAM_TREE} or
+	 * {@link ParserProtocol#STREAM_BINARY_TREE} frame.
+	 */
+	private ParseResult toStreamedResult(Frame frame) {
+		byte[] payload = frame.getPayload();
+		byte[] tree = ParserProtocol.streamTreeBytes(payload);
+		if (tree.length == 0)
+			return failedResult();
+		ParseResult result;
+		if (frame.getType() == ParserProtocol.STREAM_BINARY_TREE) {
 			try {
-				readconfig(CONFIG_FILE);
-				port = Integer.parseInt(preferences.get("port"));
-				int maxLength = Integer.parseInt(preferences.get("maxLength"));
-				String lexparserModel = preferences.get("lexparser");
-
-				Options op = new Options();
-
-				String[] options = { "-maxLength", Integer.toString(maxLength),
-						"-outputFormat", "oneline" };
-
-				op.setOptions(options);
-				englishStanfordParser = LexicalizedParser.loadModel(
-						lexparserModel, op);
-
-				/**
-				 * Not applicable in the new version of Stanford.
-				 */
-				// parser.setMaxLength();
-				// parser.setOptionFlags("maxLength",
-				// Integer.toString(maxLength),"-outputFormat", "oneline");
-			} catch (Exception e) {
-				e.printStackTrace();
+				result = new ParseResult(true, TreeCodec.decode(tree,
+						tree_factory), Double.MIN_VALUE);
+			} catch (IOException e) {
+				System.err.println("Malformed tree from parser server: " + e);
+				return failedResult();
+			}
+		} else {
+			result = new ParseResult(true, readTreeFromString(new String(tree,
+					StandardCharsets.UTF_8)), Double.MIN_VALUE);
+		}
+		String degradation = ParserProtocol.streamTreeDegradation(payload);
+		if (!degradation.isEmpty())
+			result.degradation = degradation;
+		return result;
+	}
+
+	/**
+	 * Convert the {@link ParserProtocol#TREES} or
+	 * {@link ParserProtocol#BINARY_TREES} reply of a document or batch
+	 * request.
+	 * 
+	 * @param degradations
+	 *            degradations reported for the request, null if none
+	 * @throws IOException
+	 *             if the server could not take the request
+	 * @throws TimeoutException
+	 *             if the deadline of the request passed
+	 */
+	private List<ParseResult> toParseResults(Frame reply,
+			List<String> degradations) throws IOException, TimeoutException {
+		if (reply.getType() == ParserProtocol.TIMEOUT)
+			throw new TimeoutException(reply.getText());
+		if (reply.getType() == ParserProtocol.BINARY_TREES) {
+			List<Tree> trees = TreeCodec.decodeTrees(reply.getPayload(),
+					tree_factory);
+			List<ParseResult> results = new ArrayList<ParseResult>(
+					trees.size());
+			for (Tree tree : trees) {
+				if (tree == null) {
+					results.add(new ParseResult(false,
+							readTreeFromString("(ROOT (. .))"), -99999.0));
+				} else {
+					results.add(degraded(new ParseResult(true, tree,
+							Double.MIN_VALUE), degradations, results.size()));
+				}
+			}
+			return results;
+		}
+		if (reply.getType() != ParserProtocol.TREES) {
+			// busy or failed, parse it locally
+			throw new IOException("Parser server could not parse the batch: "
+					+ reply.getType());
+		}
+		List<String> trees = ParserProtocol.decodeStrings(reply.getPayload());
+		List<ParseResult> results = new ArrayList<ParseResult>(trees.size());
+		for (String tree : trees) {
+			if (tree.isEmpty()) {
+				results.add(new ParseResult(false,
+						readTreeFromString("(ROOT (. .))"), -99999.0));
+			} else {
+				results.add(degraded(new ParseResult(true,
+						readTreeFromString(tree), Double.MIN_VALUE),
+						degradations, results.size()));
 			}
 		}
+		return results;
+	}
+
+	/**
+	 * Sentences of a document as split by the {@link DocumentPreprocessor}.
+	 */
+	private static List<String> splitDocument(String document) {
+		List<String> sentences = new ArrayList<String>();
+		for (List<HasWord> sentence : new DocumentPreprocessor(
+				new StringReader(document))) {
+			sentences.add(Sentence.listToString(sentence));
+		}
+		return sentences;
+	}
+
+	/**
+	 * @return result of a sentence which could not be parsed
+	 */
+	private ParseResult failedResult() {
+		return new ParseResult(false, readTreeFromString("(ROOT (. .))"),
+				-99999.0);
+	}
+
+	/**
+	 * @param count
+	 *            number of sentences
+	 * @return failed results for all of them
+	 */
+	private List<ParseResult> failedResults(int count) {
+		List<ParseResult> results = new ArrayList<ParseResult>(count);
+		for (int i = 0; i < count; i++) {
+			results.add(failedResult());
+		}
+		return results;
+	}
+
+	/**
+	 * Record the degradation the server reported for a sentence.
+	 * 
+	 * @param result
+	 *            parse result of the sentence
+	 * @param degradations
+	 *            degradations of the request, null if none
+	 * @param index
+	 *            index of the sentence in the request
+	 * @return the result
+	 */
+	private static ParseResult degraded(ParseResult result,
+			List<String> degradations, int index) {
+		if (degradations != null && index < degradations.size()
+				&& !degradations.get(index).isEmpty())
+			result.degradation = degradations.get(index);
+		return result;
+	}
+
+	/**
+	 * Parse the sentence with the local parser, loading it on first use.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @return the parsed result
+	 */
+	private ParseResult parseLocally(String sentence) {
+		Tree parse = null;
+		double parseScore = Double.MIN_VALUE;
+
+		if (debug)
+			System.err.println("parsing:" + sentence);
+
+		// if socket server not available, then use a local parser object
+		LocalParser englishStanfordParser = LocalParserHolder.PARSER;
+		ParseCache parseCache = LocalParserHolder.CACHE;
+
+		if (parseCache != null) {
+			parse = parseCache.get(sentence);
+			if (parse != null)
+				return new ParseResult(true, parse.deepCopy(), 0.0);
+		}
 
 		try {
 
 			parse = englishStanfordParser.parse(sentence);
 			if (parse != null) {
 
-				// remove all the parent annotations (this is a hacky way to do
-				// it)
-				String ps = parse.toString().replaceAll(
-						"\\[[^\\]]+/[^\\]]+\\]", "");
-				// System.out.println("Hello......   " + ps);
-				parse = ParserUtilities.getInstance().readTreeFromString(ps);
+				// remove all the parent annotations
+				parse = copyWithoutAnnotations(parse);
+				if (parseCache != null && parse != null)
+					parseCache.put(sentence, parse.deepCopy());
 
 				parseScore = 0.0;
 				return new ParseResult(true, parse, parseScore);
@@ -161,6 +706,107 @@ public class ParserUtilities {
 		return new ParseResult(false, parse, parseScore);
 	}
 
+	/**
+	 * Parse the sentence on one of the threads of the local parser.
+	 * 
+	 * @param sentence
+	 *            source sentence
+	 * @param result
+	 *            completed with the parsed result
+	 */
+	private void parseLocallyAsync(final String sentence,
+			final CompletableFuture<ParseResult> result) {
+		try {
+			localExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					result.complete(parseLocally(sentence));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.complete(failedResult());
+		}
+	}
+
+	/**
+	 * Parse the sentences of a document one by one on a thread of the local
+	 * parser and hand them to the consumer in order.
+	 */
+	private void streamLocally(final String document,
+			final BiConsumer<Integer, ParseResult> consumer,
+			final CompletableFuture<Integer> result) {
+		try {
+			localExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						List<String> sentences = splitDocument(document);
+						for (int i = 0; i < sentences.size(); i++) {
+							consumer.accept(i, parseLocally(sentences.get(i)));
+						}
+						result.complete(sentences.size());
+					} catch (RuntimeException e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Copy a tree in one pass, keeping only the value of every label. Drops
+	 * the head and parent annotations the parser adds to its labels, as well
+	 * as the scores.
+	 * 
+	 * @param tree
+	 *            tree produced by the parser
+	 * @return clean copy made by the tree factory
+	 */
+	private Tree copyWithoutAnnotations(Tree tree) {
+		if (tree.isLeaf())
+			return tree_factory.newLeaf(tree.value());
+
+		Tree[] children = tree.children();
+		List<Tree> kids = new ArrayList<Tree>(children.length);
+		for (Tree child : children) {
+			kids.add(copyWithoutAnnotations(child));
+		}
+		return tree_factory.newTreeNode(tree.value(), kids);
+	}
+
+	/**
+	 * Load the local parser as configured.
+	 * 
+	 * @return the local parser, or null if it could not be loaded
+	 */
+	private static LocalParser loadLocalParser() {
+		try {
+			ParserEngine engine = ParserEngines.load(preferences);
+			MaxentTagger tagger = null;
+			if (engine.requiresTags()) {
+				tagger = new MaxentTagger(preferences.get("postagger"));
+			}
+			return new LocalParser(engine, tagger, DiskParseCache.open(
+					preferences, engine.requiresTags()));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Cache of the local parser, which reports its hit, miss and eviction
+	 * counters.
+	 * 
+	 * @return the cache, or null until the local parser is loaded or when the
+	 *         cache is disabled
+	 */
+	public ParseCache getParseCache() {
+		return localParseCache;
+	}
+
 	/**
 	 * Read tree from a string
 	 * 
@@ -202,6 +848,18 @@ public class ParserUtilities {
 		}
 	}
 
+	/**
+	 * @param name
+	 *            preference name
+	 * @param defaultValue
+	 *            value used when the preference is not configured
+	 * @return integer value of the preference
+	 */
+	private static int intPreference(String name, int defaultValue) {
+		String value = preferences.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
 	private static void preferencesFromXML(SimpleElement configuration) {
 
 		for (int i = 0; i < configuration.getChildElements().size(); i++) {
@@ -235,6 +893,11 @@ public class ParserUtilities {
 		 * 
 		 */
 		public double score;
+		/**
+		 * How the server degraded the parse to keep up with its load, e.g.
+		 * "split=3" or "engine=shiftreduce"; null for a normal parse.
+		 */
+		public String degradation;
 		/**
 		 * @param s
 		 * @param p
@@ -254,8 +917,14 @@ public class ParserUtilities {
 			+ "english_stanford_parser.xml";
 	
 
-	private LexicalizedParser englishStanfordParser;
-	private static ParserUtilities instance;
+	private ParserCluster servers;
+	private ExecutorService localExecutor;
+	private long timeoutMillis;
+	/**
+	 * True if every sentence and result is printed, with "logLevel" DEBUG.
+	 */
+	private boolean debug;
+	private static volatile ParseCache localParseCache;
 	private LabeledScoredTreeFactory tree_factory;
 
 }
@@ -0,0 +1,67 @@
+package com.sanjaymeena.tutorials.stanfordparser.utilities;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sentences of different lengths which are run through a freshly loaded
+ * parser, so that the grammar is paged in and the parsing loops are compiled
+ * before the first real request arrives.
+ * 
+ * @author Sanjay_Meena
+ */
+public class WarmUpCorpus {
+
+	private static final List<String> DEFAULT_SENTENCES = Arrays.asList(
+			"Dogs bark .",
+			"I saw the man with the telescope .",
+			"The quick brown fox jumps over the lazy dog .",
+			"Diane felt manipulated by her beagle Santana , whose big , brown eyes pleaded for another cookie .");
+
+	private WarmUpCorpus() {
+	}
+
+	/**
+	 * Read the warm-up corpus, one sentence per line.
+	 * 
+	 * @param file
+	 *            corpus file, may be null
+	 * @return sentences of the file, or a few built-in sentences if the file
+	 *         is not configured or cannot be read
+	 */
+	public static List<String> load(String file) {
+		if (file == null)
+			return DEFAULT_SENTENCES;
+
+		List<String> sentences = new ArrayList<String>();
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(
+					file), StandardCharsets.UTF_8));
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (!line.trim().isEmpty())
+					sentences.add(line.trim());
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read warm-up corpus " + file + ": "
+					+ e);
+			return DEFAULT_SENTENCES;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return sentences.isEmpty() ? DEFAULT_SENTENCES : sentences;
+	}
+}